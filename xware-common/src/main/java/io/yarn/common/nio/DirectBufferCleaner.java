@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.common.nio;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Frees the native memory of a direct buffer, or unmaps a mapped buffer, at
+ * once rather than when the buffer is collected.
+ *
+ * Uses sun.misc.Unsafe#invokeCleaner where available (Java 9 and later),
+ * else the cleaner of the buffer (Java 8 and before). Both are looked up by
+ * reflection; if neither works the memory is left to the garbage collector.
+ * A freed buffer must never be accessed again, nor any slice of it.
+ */
+public final class DirectBufferCleaner {
+
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER;
+
+    private static final Method CLEANER;
+
+    private static final Method CLEAN;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception | LinkageError ex) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+
+        Method cleaner = null;
+        Method clean = null;
+        if (invokeCleaner == null) {
+            try {
+                ByteBuffer probe = ByteBuffer.allocateDirect(1);
+                cleaner = probe.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object probeCleaner = cleaner.invoke(probe);
+                clean = probeCleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(probeCleaner);
+            } catch (Exception | LinkageError ex) {
+                cleaner = null;
+                clean = null;
+            }
+        }
+
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private DirectBufferCleaner() {
+    }
+
+    /**
+     * @return true if direct buffers can be freed at once
+     */
+    public static boolean isSupported() {
+        return INVOKE_CLEANER != null || CLEAN != null;
+    }
+
+    /**
+     * Free the native memory of the direct buffer, which must not be a slice
+     * or duplicate.
+     *
+     * @param byteBuffer the buffer
+     * @return false if the memory is left to the garbage collector
+     */
+    public static boolean clean(ByteBuffer byteBuffer) {
+        if (byteBuffer == null || !byteBuffer.isDirect()) {
+            return false;
+        }
+
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, byteBuffer);
+                return true;
+            }
+
+            if (CLEAN != null) {
+                Object cleaner = CLEANER.invoke(byteBuffer);
+                if (cleaner != null) {
+                    CLEAN.invoke(cleaner);
+                    return true;
+                }
+            }
+        } catch (Exception ex) {
+            //left to the garbage collector
+        }
+
+        return false;
+    }
+
+}
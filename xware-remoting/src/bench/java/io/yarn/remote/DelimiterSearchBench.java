@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Times {@link DelimiterSearch} against the byte by byte loop the protocol
+ * decoder used before, on a payload split into segments with the delimiter
+ * at its very end, so each search scans the whole payload.
+ *
+ * Not part of the build. From the project root, after mvn compile:
+ *
+ * <pre>
+ * javac -cp xware-remoting/target/classes -d /tmp/bench \
+ *     xware-remoting/src/bench/java/io/yarn/remote/DelimiterSearchBench.java
+ * java -cp xware-remoting/target/classes:/tmp/bench io.yarn.remote.DelimiterSearchBench [payloadKb] [segments]
+ * </pre>
+ *
+ * The last results are kept in DelimiterSearchBench.txt beside this file.
+ */
+public class DelimiterSearchBench {
+
+    private static final int WARMUP_ROUNDS = 10;
+
+    private static final int MEASURED_ROUNDS = 10;
+
+    private static final int SEARCHES_PER_ROUND = 20;
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int payloadKb = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int segments = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        System.out.println("java " + System.getProperty("java.version") + ", " + System.getProperty("os.arch")
+                + ", payload " + payloadKb + "KB in " + segments + " segments");
+        String[] delimiters = {"\n", "\r\n", "\r\n--boundary\r\n"};
+        for (String delimiter : delimiters) {
+            byte[] mark = delimiter.getBytes(StandardCharsets.US_ASCII);
+            CompositeBuffer buffer = payload(payloadKb * 1024, segments, mark);
+            DelimiterSearch search = new DelimiterSearch(mark);
+
+            String name = mark.length + " byte" + (mark.length > 1 ? "s:" : ":");
+            report("search " + name, buffer, measure(buffer, search, null));
+            report("naive  " + name, buffer, measure(buffer, null, mark));
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    private static CompositeBuffer payload(int size, int segments, byte[] mark) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            //printable text holding no delimiter byte
+            bytes[i] = (byte) ('a' + i % 23);
+        }
+        System.arraycopy(mark, 0, bytes, size - mark.length, mark.length);
+
+        ByteBuffer[] buffers = new ByteBuffer[segments];
+        int segmentSize = size / segments;
+        for (int i = 0; i < segments; i++) {
+            int offset = i * segmentSize;
+            int length = i == segments - 1 ? size - offset : segmentSize;
+            buffers[i] = ByteBuffer.wrap(bytes, offset, length).slice();
+        }
+
+        return new CompositeBuffer(buffers);
+    }
+
+    /**
+     * @return the nanoseconds per search of each measured round
+     */
+    private static long[] measure(CompositeBuffer buffer, DelimiterSearch search, byte[] mark) {
+        long[] times = new long[MEASURED_ROUNDS];
+        for (int round = -WARMUP_ROUNDS; round < MEASURED_ROUNDS; round++) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < SEARCHES_PER_ROUND; i++) {
+                sink += search != null ? buffer.indexOf(search, 0) : naiveIndexOf(buffer, mark);
+            }
+            long elapsed = (System.nanoTime() - begin) / SEARCHES_PER_ROUND;
+            if (round >= 0) {
+                times[round] = elapsed;
+            }
+        }
+
+        Arrays.sort(times);
+        return times;
+    }
+
+    /**
+     * The loop of the decoder before {@link DelimiterSearch}.
+     */
+    private static int naiveIndexOf(CompositeBuffer buffer, byte[] mark) {
+        int last = buffer.length() - mark.length;
+        for (int i = 0; i <= last; i++) {
+            int j = 0;
+            while (j < mark.length && buffer.get(i + j) == mark[j]) {
+                j++;
+            }
+            if (j == mark.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static void report(String name, CompositeBuffer buffer, long[] times) {
+        long median = times[times.length / 2];
+        double megabytes = buffer.length() / (1024.0 * 1024.0);
+        System.out.println(String.format("%-16s median %8.3f ms/MB, min %8.3f ms/MB, %8.1f MB/s",
+                name, median / 1e6 / megabytes, times[0] / 1e6 / megabytes, megabytes / (median / 1e9)));
+    }
+
+}
@@ -22,7 +22,8 @@ import java.nio.ByteBuffer;
 
 /**
  *
- *
+ * Read the remaining bytes of buffers in order, advancing their positions.
+ * See {@link CompositeBuffer} to read primitives or slices without copying.
  */
 public class BufferInputStream extends InputStream {
 
@@ -45,7 +46,7 @@ public class BufferInputStream extends InputStream {
 
             ByteBuffer buffer = buffers[bufferIndex];
             if (buffer.hasRemaining()) {
-                return buffer.get();
+                return buffer.get() & 0xFF;
             } else {
                 bufferIndex++;
             }
@@ -65,7 +66,7 @@ public class BufferInputStream extends InputStream {
         int readCount = 0;
         while (readCount < len) {
             if (bufferIndex >= buffers.length) {
-                return -1;
+                return readCount > 0 ? readCount : -1;
             }
 
             ByteBuffer buffer = buffers[bufferIndex];
@@ -77,6 +78,8 @@ public class BufferInputStream extends InputStream {
 
                 buffer.get(b, off + readCount, copySize);
                 readCount += copySize;
+            } else {
+                bufferIndex++;
             }
 
         }
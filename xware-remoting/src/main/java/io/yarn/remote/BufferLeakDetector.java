@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Find buffers of a {@link BufferPool} dropped without being released.
+ *
+ * One acquisition out of samplingInterval on average is tracked by a weak
+ * reference holding its allocation site. A tracked buffer collected by the
+ * garbage collector before it was released is reported with the site. Only
+ * sampled acquisitions pay for the stack trace, the others pay a random
+ * number.
+ */
+class BufferLeakDetector {
+
+    private static final Logger _logger = Logger.getLogger(BufferLeakDetector.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(BufferLeakDetector.class);
+
+    private final ReferenceQueue<ByteBuffer> collectedBuffers = new ReferenceQueue<ByteBuffer>();
+
+    /**
+     * The records by identity hash code of their buffers. Looked up without
+     * lock, so that releasing a buffer that is not tracked takes none; the
+     * lists are changed with this held.
+     */
+    private final ConcurrentMap<Integer, List<LeakRecord>> records = new ConcurrentHashMap<Integer, List<LeakRecord>>();
+
+    private volatile int trackedBuffers = 0;
+
+    private final AtomicLong leaks = new AtomicLong();
+
+    private final AtomicLong leakedHeapBytes = new AtomicLong();
+
+    private final AtomicLong leakedDirectBytes = new AtomicLong();
+
+    boolean sample(int samplingInterval) {
+        return samplingInterval == 1
+                || (samplingInterval > 1 && ThreadLocalRandom.current().nextInt(samplingInterval) == 0);
+    }
+
+    void track(ByteBuffer byteBuffer) {
+        reportLeaks();
+
+        LeakRecord record = new LeakRecord(byteBuffer, collectedBuffers);
+        synchronized (this) {
+            List<LeakRecord> sameHash = records.get(record.hash);
+            if (sameHash == null) {
+                sameHash = new ArrayList<LeakRecord>(1);
+                records.put(record.hash, sameHash);
+            }
+            sameHash.add(record);
+            trackedBuffers++;
+        }
+    }
+
+    void untrack(ByteBuffer byteBuffer) {
+        if (trackedBuffers == 0) {
+            return;
+        }
+
+        Integer hash = System.identityHashCode(byteBuffer);
+        if (!records.containsKey(hash)) {
+            return;
+        }
+
+        synchronized (this) {
+            List<LeakRecord> sameHash = records.get(hash);
+            if (sameHash == null) {
+                return;
+            }
+
+            for (int i = 0; i < sameHash.size(); i++) {
+                LeakRecord record = sameHash.get(i);
+                if (record.get() == byteBuffer) {
+                    //a cleared reference is not enqueued
+                    record.clear();
+                    remove(hash, sameHash, i);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Report the tracked buffers collected since the last call.
+     *
+     * @return the leaks found
+     */
+    int reportLeaks() {
+        int found = 0;
+        LeakRecord record;
+        while ((record = (LeakRecord) collectedBuffers.poll()) != null) {
+            synchronized (this) {
+                List<LeakRecord> sameHash = records.get(record.hash);
+                int index = sameHash != null ? sameHash.indexOf(record) : -1;
+                if (index < 0) {
+                    continue;
+                }
+                remove(record.hash, sameHash, index);
+            }
+
+            found++;
+            leaks.incrementAndGet();
+            (record.direct ? leakedDirectBytes : leakedHeapBytes).addAndGet(record.capacity);
+            _logger.log(Level.WARNING, strings.get("buffer.leak.detected", record.capacity, record.direct), record.site);
+        }
+
+        return found;
+    }
+
+    private void remove(Integer hash, List<LeakRecord> sameHash, int index) {
+        sameHash.remove(index);
+        if (sameHash.isEmpty()) {
+            records.remove(hash);
+        }
+        trackedBuffers--;
+    }
+
+    int getTrackedBuffers() {
+        return trackedBuffers;
+    }
+
+    long getLeaks() {
+        return leaks.get();
+    }
+
+    long getLeakedHeapBytes() {
+        return leakedHeapBytes.get();
+    }
+
+    long getLeakedDirectBytes() {
+        return leakedDirectBytes.get();
+    }
+
+    private static class LeakRecord extends WeakReference<ByteBuffer> {
+
+        private final Integer hash;
+
+        private final int capacity;
+
+        private final boolean direct;
+
+        private final Throwable site;
+
+        private LeakRecord(ByteBuffer byteBuffer, ReferenceQueue<ByteBuffer> queue) {
+            super(byteBuffer, queue);
+            this.hash = System.identityHashCode(byteBuffer);
+            this.capacity = byteBuffer.capacity();
+            this.direct = byteBuffer.isDirect();
+            this.site = new Throwable("Buffer acquired here");
+        }
+    }
+
+}
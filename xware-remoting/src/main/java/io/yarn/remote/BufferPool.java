@@ -16,24 +16,121 @@
  */
 package io.yarn.remote;
 
+import io.yarn.common.nio.DirectBufferCleaner;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  *
  * Cache and allocator ByteBuffers.
+ *
+ * Buffers are pooled in power of two size classes from minBufferSize to
+ * maxBufferSize. Each thread keeps a small stack of buffers per size class
+ * and falls back to a lock free queue shared by all threads, so acquiring and
+ * releasing a buffer takes constant time, no lock and no allocation once the
+ * pool is warm. Larger buffers are allocated and dropped without pooling.
+ *
+ * In direct arena mode direct buffers are slices of a
+ * {@link DirectMemoryArena}, and buffers the pool does not keep go back to
+ * it rather than to the garbage collector.
+ *
+ * Each thread counts its own acquisitions, so the accounting costs no shared
+ * write: the counters are summed on read. Leak detection samples one
+ * acquisition out of leakSamplingInterval, see {@link BufferLeakDetector}. In
+ * direct arena mode the arena keeps its slices reachable, a leaked slice is
+ * seen in the outstanding direct bytes only.
+ *
+ * Cached buffers stay until a {@link BufferPoolTrimmer} trims the shared
+ * queues of the buffers they kept idle.
+ *
+ * Direct buffers are allocated against a {@link MemoryBudget}: an
+ * acquisition that would pass its hard limit fails with a
+ * {@link MemoryBudgetExceededException}, and the pool trims its caches when
+ * the budget comes under pressure and caches nothing until it is relieved. Direct buffers the pool drops are freed at
+ * once.
+ *
+ * The sizes and limits must be set before the pool is first used.
  */
 public class BufferPool {
 
     private boolean useDirectByteBuffer = false;
 
+    /**
+     * The size of the buffers of {@link #acquire(int)}.
+     */
     private int bufferAllocateSize = 4096;
 
+    private int minBufferSize = 64;
+
+    private int maxBufferSize = 1024 * 1024;
+
+    /**
+     * The buffers of each size class kept in the shared queue.
+     */
     private int maxBuffers = 512;
 
-    private int cachedBuffers = 0;
+    /**
+     * The buffers of each size class kept by each thread.
+     */
+    private int threadCacheSize = 32;
+
+    /**
+     * Slice direct buffers out of large chunks instead of allocating each.
+     */
+    private boolean useDirectArena = false;
+
+    private int chunkSize = 4 * 1024 * 1024;
+
+    private volatile DirectMemoryArena directArena;
+
+    private volatile SizeClass[] sizeClasses;
+
+    private int minSizeShift;
+
+    /**
+     * Track one acquisition out of this many for leaks, 0 for none.
+     */
+    private int leakSamplingInterval = 0;
+
+    /**
+     * The budget of direct buffers, none if null.
+     */
+    private MemoryBudget memoryBudget = MemoryBudget.getDefault();
+
+    private final MemoryPressureListener pressureListener = new MemoryPressureListener() {
+        @Override
+        public void memoryPressureChanged(MemoryBudget memoryBudget, boolean underPressure) {
+            if (underPressure) {
+                trim();
+            }
+        }
+    };
+
+    /**
+     * Bumped by trim, telling each thread to drop its cache on its next use.
+     */
+    private volatile int trimCount = 0;
+
+    private final BufferLeakDetector leakDetector = new BufferLeakDetector();
 
-    private final LinkedList<ByteBuffer> bufferQueue = new LinkedList<>();
+    private final ThreadLocal<ThreadCache> threadCaches = new ThreadLocal<ThreadCache>();
+
+    /**
+     * The caches of the live threads, so that the counters of a dead thread
+     * are kept and the buffers it cached are dropped.
+     */
+    private final Queue<ThreadCounters> allCounters = new ConcurrentLinkedQueue<ThreadCounters>();
+
+    /**
+     * The counters of the dead threads, summed.
+     */
+    private final AtomicLongArray retiredCounters = new AtomicLongArray(ThreadCache.COUNTERS);
 
     public boolean isUseDirectByteBuffer() {
         return useDirectByteBuffer;
@@ -51,6 +148,22 @@ public class BufferPool {
         this.bufferAllocateSize = bufferAllocateSize;
     }
 
+    public int getMinBufferSize() {
+        return minBufferSize;
+    }
+
+    public void setMinBufferSize(int minBufferSize) {
+        this.minBufferSize = minBufferSize;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    public void setMaxBufferSize(int maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+    }
+
     public int getMaxBuffers() {
         return maxBuffers;
     }
@@ -59,75 +172,588 @@ public class BufferPool {
         this.maxBuffers = maxBuffers;
     }
 
+    public int getThreadCacheSize() {
+        return threadCacheSize;
+    }
+
+    public void setThreadCacheSize(int threadCacheSize) {
+        this.threadCacheSize = threadCacheSize;
+    }
+
+    public boolean isUseDirectArena() {
+        return useDirectArena;
+    }
+
+    public void setUseDirectArena(boolean useDirectArena) {
+        this.useDirectArena = useDirectArena;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public int getLeakSamplingInterval() {
+        return leakSamplingInterval;
+    }
+
+    public void setLeakSamplingInterval(int leakSamplingInterval) {
+        this.leakSamplingInterval = leakSamplingInterval;
+    }
+
+    /**
+     * @return the arena direct buffers are sliced from, null if not in arena
+     * mode
+     */
+    public DirectMemoryArena getDirectArena() {
+        getSizeClasses();
+        return directArena;
+    }
+
+    /**
+     * @return the buffers in the shared queues, not counting thread caches
+     */
     public int getCachedBuffers() {
-        return cachedBuffers;
+        SizeClass[] classes = sizeClasses;
+        if (classes == null) {
+            return 0;
+        }
+
+        int cached = 0;
+        for (SizeClass sizeClass : classes) {
+            cached += sizeClass.sharedBuffers.size();
+        }
+
+        return cached;
+    }
+
+    /**
+     * @return the bytes of heap buffers acquired and not released
+     */
+    public long getOutstandingHeapBytes() {
+        return sumCounters(ThreadCache.OUTSTANDING_HEAP_BYTES) - leakDetector.getLeakedHeapBytes();
+    }
+
+    /**
+     * @return the bytes of direct buffers acquired and not released
+     */
+    public long getOutstandingDirectBytes() {
+        return sumCounters(ThreadCache.OUTSTANDING_DIRECT_BYTES) - leakDetector.getLeakedDirectBytes();
     }
 
-    public void setCachedBuffers(int cachedBuffers) {
-        this.cachedBuffers = cachedBuffers;
+    /**
+     * @return the acquisitions served by a cached buffer
+     */
+    public long getHits() {
+        return sumCounters(ThreadCache.HITS);
     }
 
-    public synchronized ByteBuffer[] acquire(int requireSize) {
+    /**
+     * @return the acquisitions that allocated a buffer
+     */
+    public long getMisses() {
+        return sumCounters(ThreadCache.MISSES);
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total > 0 ? (double) hits / total : 0;
+    }
 
-        int capacity = 0;
-        LinkedList<ByteBuffer> chosenByteBuffers = new LinkedList<>();
-        while (capacity < requireSize) {
+    /**
+     * @return the released buffers dropped as their size class held
+     * maxBuffers already
+     */
+    public long getDiscards() {
+        return sumCounters(ThreadCache.DISCARDS);
+    }
+
+    /**
+     * Report the sampled buffers collected without being released since the
+     * last call.
+     *
+     * @return the leaks found
+     */
+    public int reportLeaks() {
+        return leakDetector.reportLeaks();
+    }
+
+    /**
+     * @return the leaks reported so far
+     */
+    public long getLeaks() {
+        leakDetector.reportLeaks();
+        return leakDetector.getLeaks();
+    }
+
+    /**
+     * Drop the buffers of the shared queues and of the dead threads. Live
+     * thread caches are dropped by their threads on their next acquisition or
+     * release.
+     */
+    public void trim() {
+        SizeClass[] classes = sizeClasses;
+        if (classes == null) {
+            return;
+        }
+
+        synchronized (this) {
+            trimCount++;
+        }
+
+        retireCounters();
+
+        for (SizeClass sizeClass : classes) {
             ByteBuffer byteBuffer;
-            if (cachedBuffers > 0) {
-                byteBuffer = bufferQueue.pollFirst();
-                cachedBuffers--;
-            } else {
-                byteBuffer = createByteBuffer();
+            while ((byteBuffer = sizeClass.sharedBuffers.poll()) != null) {
+                dropBuffer(byteBuffer);
+            }
+        }
+    }
+
+    /**
+     * Shrink the shared queues toward the demand seen lately. The buffers a
+     * queue kept all along since the last call, its low water size, were not
+     * needed: all but decay of them are dropped, so buffers left over from a
+     * spike are dropped exponentially while the buffers in use stay.
+     *
+     * @param decay the part of the idle buffers kept, between 0 and 1
+     * @return the buffers dropped
+     */
+    public int trimToDemand(double decay) {
+        SizeClass[] classes = sizeClasses;
+        if (classes == null) {
+            return 0;
+        }
+
+        retireCounters();
+        List<ByteBuffer> excessBuffers = new ArrayList<ByteBuffer>();
+        synchronized (this) {
+            for (SizeClass sizeClass : classes) {
+                int idle = Math.min(sizeClass.lowWater.getAndSet(Integer.MAX_VALUE),
+                        sizeClass.sharedBuffers.size());
+                int excess = idle - (int) (idle * decay);
+                ByteBuffer byteBuffer;
+                while (excess-- > 0 && (byteBuffer = sizeClass.sharedBuffers.poll()) != null) {
+                    excessBuffers.add(byteBuffer);
+                }
+            }
+        }
+
+        //outside the pool lock, freeing may call the pressure listeners
+        for (ByteBuffer byteBuffer : excessBuffers) {
+            dropBuffer(byteBuffer);
+        }
+
+        return excessBuffers.size();
+    }
+
+    /**
+     * Drop the cached buffers and stop listening to the memory budget. The
+     * pool may still be used, uncached. A pool dropped without being closed
+     * is not kept by the budget, which holds its listeners weakly.
+     */
+    public void close() {
+        MemoryBudget budget = memoryBudget;
+        if (budget != null) {
+            budget.removeMemoryPressureListener(pressureListener);
+        }
+        trim();
+    }
+
+    private long sumCounters(int counter) {
+        retireCounters();
+
+        long sum = retiredCounters.get(counter);
+        for (ThreadCounters threadCounters : allCounters) {
+            sum += threadCounters.counters.get(counter);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Fold the counters of the dead threads into the retired counters, and
+     * drop the buffers they cached.
+     */
+    private void retireCounters() {
+        for (ThreadCounters threadCounters : allCounters) {
+            Thread thread = threadCounters.get();
+            if (thread != null && thread.isAlive()) {
+                continue;
             }
 
-            capacity += byteBuffer.capacity();
-            chosenByteBuffers.add(byteBuffer);
+            //only the thread removing the counters folds them
+            if (allCounters.remove(threadCounters)) {
+                AtomicLongArray counters = threadCounters.counters;
+                for (int i = 0; i < counters.length(); i++) {
+                    retiredCounters.addAndGet(i, counters.get(i));
+                }
+
+                //the thread is dead, nothing else touches its cache
+                dropCachedBuffers(threadCounters.threadCache);
+            }
+        }
+    }
+
+    /**
+     * Acquire buffers of bufferAllocateSize holding at least requireSize
+     * bytes together.
+     *
+     * @param requireSize the bytes required
+     * @return the buffers
+     */
+    public ByteBuffer[] acquire(int requireSize) {
+        int count = Math.max(1, (requireSize + bufferAllocateSize - 1) / bufferAllocateSize);
+        ByteBuffer[] byteBuffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            byteBuffers[i] = acquireBuffer(bufferAllocateSize);
         }
 
-        ByteBuffer[] byteBuffers = new ByteBuffer[chosenByteBuffers.size()];
         return byteBuffers;
     }
 
     /**
+     * Acquire a cleared buffer with a capacity of the size rounded up to its
+     * size class, its limit set to the size.
      *
-     * @return
+     * @param size the bytes required
+     * @return the buffer
      */
-    private ByteBuffer createByteBuffer() {
-        if (useDirectByteBuffer) {
-            return ByteBuffer.allocateDirect(bufferAllocateSize);
+    public ByteBuffer acquireBuffer(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        }
+
+        SizeClass sizeClass = sizeClassOf(size);
+        ThreadCache threadCache = getThreadCache();
+        ByteBuffer byteBuffer;
+        if (sizeClass == null) {
+            byteBuffer = createByteBuffer(size);
+            threadCache.count(ThreadCache.MISSES, 1);
         } else {
-            return ByteBuffer.allocate(bufferAllocateSize);
+            byteBuffer = threadCache.pop(sizeClass.index);
+            if (byteBuffer == null) {
+                byteBuffer = sizeClass.sharedBuffers.poll();
+                sizeClass.updateLowWater();
+            }
+
+            if (byteBuffer != null) {
+                threadCache.count(ThreadCache.HITS, 1);
+            } else {
+                byteBuffer = createByteBuffer(sizeClass.size);
+                threadCache.count(ThreadCache.MISSES, 1);
+            }
+        }
+
+        threadCache.count(byteBuffer.isDirect() ? ThreadCache.OUTSTANDING_DIRECT_BYTES : ThreadCache.OUTSTANDING_HEAP_BYTES,
+                byteBuffer.capacity());
+        if (leakDetector.sample(leakSamplingInterval)) {
+            leakDetector.track(byteBuffer);
         }
+
+        byteBuffer.clear();
+        byteBuffer.limit(size);
+        return byteBuffer;
     }
 
     /**
+     * Acquire a buffer as a reference counted handle, the buffer goes back to
+     * the pool when the handle and its views are all released.
      *
-     * @param byteBuffers
+     * @param size the bytes required
+     * @return the handle, holding one reference
      */
-    public synchronized void release(ByteBuffer[] byteBuffers) {
+    public PooledBuffer acquirePooled(int size) {
+        return new PooledBuffer(this, acquireBuffer(size));
+    }
 
-        for (ByteBuffer byteBuffer : byteBuffers) {
-            if (cachedBuffers >= maxBuffers) {
-                //discard the buffer
-                return;
+    /**
+     *
+     * @param size
+     * @return
+     */
+    private ByteBuffer createByteBuffer(int size) {
+        if (!useDirectByteBuffer) {
+            return ByteBuffer.allocate(size);
+        }
+
+        //the arena reserves its chunks itself
+        DirectMemoryArena arena = directArena;
+        if (arena != null) {
+            return arena.allocate(size);
+        }
+
+        MemoryBudget budget = memoryBudget;
+        if (budget != null) {
+            budget.reserve(size);
+        }
+
+        try {
+            return ByteBuffer.allocateDirect(size);
+        } catch (OutOfMemoryError oomError) {
+            if (budget != null) {
+                budget.release(size);
             }
-            bufferQueue.offer(byteBuffer);
-            cachedBuffers++;
+            throw oomError;
+        }
+    }
+
+    /**
+     * Free a buffer not kept by the pool: back to the arena, or at once if
+     * direct, and out of the memory budget.
+     */
+    private void dropBuffer(ByteBuffer byteBuffer) {
+        if (!byteBuffer.isDirect()) {
+            return;
+        }
+
+        DirectMemoryArena arena = directArena;
+        if (arena != null) {
+            arena.free(byteBuffer);
+            return;
+        }
+
+        DirectBufferCleaner.clean(byteBuffer);
+        MemoryBudget budget = memoryBudget;
+        if (budget != null) {
+            budget.release(byteBuffer.capacity());
         }
     }
 
     /**
+     *
+     * @param byteBuffers
+     */
+    public void release(ByteBuffer[] byteBuffers) {
+        for (ByteBuffer byteBuffer : byteBuffers) {
+            release(byteBuffer);
+        }
+    }
+
+    /**
+     * Give a buffer back, buffers of no size class of this pool are dropped.
      *
      * @param byteBuffer
      */
-    public synchronized void release(ByteBuffer byteBuffer) {
-        if (cachedBuffers >= maxBuffers) {
-            //discard the buffer
+    public void release(ByteBuffer byteBuffer) {
+        if (byteBuffer == null || byteBuffer.isDirect() != useDirectByteBuffer) {
             return;
         }
 
-        bufferQueue.offer(byteBuffer);
-        cachedBuffers++;
+        int capacity = byteBuffer.capacity();
+        SizeClass sizeClass = sizeClassOf(capacity);
+        if (sizeClass != null && sizeClass.size != capacity) {
+            return;
+        }
+
+        ThreadCache threadCache = getThreadCache();
+        threadCache.count(byteBuffer.isDirect() ? ThreadCache.OUTSTANDING_DIRECT_BYTES : ThreadCache.OUTSTANDING_HEAP_BYTES,
+                -capacity);
+        leakDetector.untrack(byteBuffer);
+        MemoryBudget budget = memoryBudget;
+        if (sizeClass == null || (budget != null && byteBuffer.isDirect() && budget.isUnderPressure())) {
+            dropBuffer(byteBuffer);
+            return;
+        }
+
+        if (!threadCache.push(sizeClass.index, byteBuffer)
+                && !sizeClass.sharedBuffers.offer(byteBuffer)) {
+            threadCache.count(ThreadCache.DISCARDS, 1);
+            dropBuffer(byteBuffer);
+        }
+    }
+
+    /**
+     * @return the size class of the size, null if above maxBufferSize
+     */
+    private SizeClass sizeClassOf(int size) {
+        SizeClass[] classes = getSizeClasses();
+        int shift = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        int index = Math.max(0, shift - minSizeShift);
+        return index < classes.length ? classes[index] : null;
+    }
+
+    private SizeClass[] getSizeClasses() {
+        SizeClass[] classes = sizeClasses;
+        if (classes == null) {
+            synchronized (this) {
+                classes = sizeClasses;
+                if (classes == null) {
+                    classes = createSizeClasses();
+                    if (useDirectByteBuffer && useDirectArena) {
+                        directArena = new DirectMemoryArena(chunkSize, minBufferSize, memoryBudget);
+                    }
+                    if (useDirectByteBuffer && memoryBudget != null) {
+                        memoryBudget.addMemoryPressureListener(pressureListener);
+                    }
+                    sizeClasses = classes;
+                }
+            }
+        }
+
+        return classes;
+    }
+
+    private SizeClass[] createSizeClasses() {
+        if (minBufferSize < 1 || maxBufferSize < minBufferSize) {
+            throw new IllegalStateException("Invalid buffer sizes " + minBufferSize + " - " + maxBufferSize);
+        }
+
+        minSizeShift = 32 - Integer.numberOfLeadingZeros(minBufferSize - 1);
+        int maxSizeShift = 32 - Integer.numberOfLeadingZeros(maxBufferSize - 1);
+        SizeClass[] classes = new SizeClass[maxSizeShift - minSizeShift + 1];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new SizeClass(i, 1 << (minSizeShift + i), maxBuffers);
+        }
+
+        return classes;
+    }
+
+    private ThreadCache getThreadCache() {
+        ThreadCache threadCache = threadCaches.get();
+        if (threadCache == null) {
+            threadCache = new ThreadCache(getSizeClasses().length, threadCacheSize);
+            threadCache.trimCount = trimCount;
+            threadCaches.set(threadCache);
+            retireCounters();
+            allCounters.offer(new ThreadCounters(Thread.currentThread(), threadCache));
+        } else if (threadCache.trimCount != trimCount) {
+            threadCache.trimCount = trimCount;
+            dropCachedBuffers(threadCache);
+        }
+
+        return threadCache;
+    }
+
+    private void dropCachedBuffers(ThreadCache threadCache) {
+        ByteBuffer byteBuffer;
+        for (int i = 0; i < threadCache.sizes.length; i++) {
+            while ((byteBuffer = threadCache.pop(i)) != null) {
+                dropBuffer(byteBuffer);
+            }
+        }
+    }
+
+    private static class SizeClass {
+
+        private final int index;
+
+        private final int size;
+
+        private final BoundedConcurrentQueue<ByteBuffer> sharedBuffers;
+
+        /**
+         * The least size of the shared queue since the last trim.
+         */
+        private final AtomicInteger lowWater = new AtomicInteger(Integer.MAX_VALUE);
+
+        private SizeClass(int index, int size, int maxBuffers) {
+            this.index = index;
+            this.size = size;
+            this.sharedBuffers = new BoundedConcurrentQueue<ByteBuffer>(Math.max(1, maxBuffers));
+        }
+
+        private void updateLowWater() {
+            int queued = sharedBuffers.size();
+            int low;
+            while (queued < (low = lowWater.get())) {
+                if (lowWater.compareAndSet(low, queued)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The counters and the cache of a thread, holding the thread weakly.
+     */
+    private static class ThreadCounters extends WeakReference<Thread> {
+
+        private final AtomicLongArray counters;
+
+        private final ThreadCache threadCache;
+
+        private ThreadCounters(Thread thread, ThreadCache threadCache) {
+            super(thread);
+            this.counters = threadCache.counters;
+            this.threadCache = threadCache;
+        }
+    }
+
+    /**
+     * The buffers cached by a thread, a stack per size class.
+     */
+    private static class ThreadCache {
+
+        private static final int HITS = 0;
+
+        private static final int MISSES = 1;
+
+        private static final int DISCARDS = 2;
+
+        private static final int OUTSTANDING_HEAP_BYTES = 3;
+
+        private static final int OUTSTANDING_DIRECT_BYTES = 4;
+
+        private static final int COUNTERS = 5;
+
+        private final ByteBuffer[][] stacks;
+
+        private int trimCount;
+
+        /**
+         * Written by the owner thread only, read by any.
+         */
+        private final AtomicLongArray counters = new AtomicLongArray(COUNTERS);
+
+        private final int[] sizes;
+
+        private ThreadCache(int sizeClasses, int cacheSize) {
+            this.stacks = new ByteBuffer[sizeClasses][cacheSize];
+            this.sizes = new int[sizeClasses];
+        }
+
+        private void count(int counter, long delta) {
+            counters.lazySet(counter, counters.get(counter) + delta);
+        }
+
+        private ByteBuffer pop(int sizeClass) {
+            int size = sizes[sizeClass];
+            if (size == 0) {
+                return null;
+            }
+
+            ByteBuffer[] stack = stacks[sizeClass];
+            ByteBuffer byteBuffer = stack[--size];
+            stack[size] = null;
+            sizes[sizeClass] = size;
+            return byteBuffer;
+        }
+
+        private boolean push(int sizeClass, ByteBuffer byteBuffer) {
+            ByteBuffer[] stack = stacks[sizeClass];
+            int size = sizes[sizeClass];
+            if (size == stack.length) {
+                return false;
+            }
+
+            stack[size] = byteBuffer;
+            sizes[sizeClass] = size + 1;
+            return true;
+        }
     }
 
 }
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import io.yarn.work.TimerWork;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Trims a {@link BufferPool} periodically, so that the buffers it keeps
+ * follow the load rather than the last spike.
+ *
+ * Each run drops the buffers the shared queues of the pool kept idle since
+ * the last run, keeping decay of them, see
+ * {@link BufferPool#trimToDemand(double)}. Dropped direct buffers are freed
+ * at once. Thread caches, bounded by threadCacheSize, are left alone.
+ *
+ * The trimmer is a repeatable {@link TimerWork}, add it to a
+ * {@link io.yarn.work.TimerWorkScheduler} to run it.
+ */
+public class BufferPoolTrimmer extends TimerWork {
+
+    private static final Logger _logger = Logger.getLogger(BufferPoolTrimmer.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(BufferPoolTrimmer.class);
+
+    private final BufferPool bufferPool;
+
+    private double decay = 0.5;
+
+    public BufferPoolTrimmer(BufferPool bufferPool) {
+        super(null);
+        this.bufferPool = bufferPool;
+        super.setScheduleOnlyOnce(false);
+        super.setScheduleInterval(10000);
+        super.setName("buffer-pool-trimmer");
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public double getDecay() {
+        return decay;
+    }
+
+    public void setDecay(double decay) {
+        if (decay < 0 || decay > 1) {
+            throw new IllegalArgumentException("decay must be between 0 and 1: " + decay);
+        }
+
+        this.decay = decay;
+    }
+
+    @Override
+    protected void doTimerWork() {
+        int dropped = bufferPool.trimToDemand(decay);
+        if (dropped > 0 && _logger.isLoggable(Level.FINE)) {
+            _logger.log(Level.FINE, strings.get("buffer.pool.trimmed", dropped, bufferPool.getCachedBuffers()));
+        }
+    }
+
+}
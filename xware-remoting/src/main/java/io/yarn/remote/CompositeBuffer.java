@@ -0,0 +1,555 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read only view of the remaining bytes of several buffers as one.
+ *
+ * Primitives are read in the byte order of the composite buffer, big endian
+ * unless set, straight from a segment when they fit in it and assembled
+ * byte by byte only when they span two. Slices are views of the same
+ * segments, no byte is copied. Varints are unsigned LEB128, as in protocol
+ * buffers, and do not depend on the byte order.
+ *
+ * Like a ByteBuffer, the relative methods read at the position and advance
+ * it, throwing a BufferUnderflowException past the end, while the absolute
+ * methods take an index and leave the position alone. The segments must not
+ * change while viewed. A composite buffer is not thread safe.
+ */
+public class CompositeBuffer {
+
+    private static final ByteBuffer[] NO_SEGMENTS = new ByteBuffer[0];
+
+    /**
+     * Slices of the buffers, each holding its bytes from index 0.
+     */
+    private final ByteBuffer[] segments;
+
+    /**
+     * The index of the first byte of each segment, plus the length at the
+     * end.
+     */
+    private final int[] offsets;
+
+    private final int length;
+
+    private int position = 0;
+
+    /**
+     * The segment last read, for sequential reads not to search.
+     */
+    private int current = 0;
+
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+
+    /**
+     * View the remaining bytes of the buffers, whose positions and limits are
+     * left alone.
+     *
+     * @param buffers the buffers
+     */
+    public CompositeBuffer(ByteBuffer... buffers) {
+        this(slicesOf(buffers), ByteOrder.BIG_ENDIAN);
+    }
+
+    private CompositeBuffer(ByteBuffer[] segments, ByteOrder order) {
+        this.segments = segments;
+        this.offsets = new int[segments.length + 1];
+        int offset = 0;
+        for (int i = 0; i < segments.length; i++) {
+            offsets[i] = offset;
+            offset += segments[i].limit();
+        }
+        offsets[segments.length] = offset;
+        this.length = offset;
+        order(order);
+    }
+
+    private static ByteBuffer[] slicesOf(ByteBuffer[] buffers) {
+        List<ByteBuffer> slices = new ArrayList<ByteBuffer>(buffers.length);
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                slices.add(buffer.slice());
+            }
+        }
+
+        return slices.toArray(NO_SEGMENTS);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public CompositeBuffer position(int newPosition) {
+        if (newPosition < 0 || newPosition > length) {
+            throw new IllegalArgumentException("position " + newPosition + " out of 0 - " + length);
+        }
+
+        position = newPosition;
+        return this;
+    }
+
+    public int remaining() {
+        return length - position;
+    }
+
+    public boolean hasRemaining() {
+        return position < length;
+    }
+
+    public ByteOrder order() {
+        return order;
+    }
+
+    public CompositeBuffer order(ByteOrder order) {
+        this.order = order;
+        for (ByteBuffer segment : segments) {
+            segment.order(order);
+        }
+
+        return this;
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return views of the segments, each holding its bytes from its position
+     * to its limit
+     */
+    public ByteBuffer[] nioBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            buffers[i] = segments[i].duplicate().order(order);
+            buffers[i].clear();
+        }
+
+        return buffers;
+    }
+
+    public byte get() {
+        byte value = get(checkRelative(1));
+        position++;
+        return value;
+    }
+
+    public byte get(int index) {
+        checkIndex(index, 1);
+        int segment = segmentOf(index);
+        return segments[segment].get(index - offsets[segment]);
+    }
+
+    public short getShort() {
+        short value = getShort(checkRelative(2));
+        position += 2;
+        return value;
+    }
+
+    public short getShort(int index) {
+        checkIndex(index, 2);
+        int segment = segmentOf(index);
+        int offset = index - offsets[segment];
+        if (offset + 2 <= segments[segment].limit()) {
+            return segments[segment].getShort(offset);
+        }
+
+        return (short) assemble(index, 2);
+    }
+
+    public int getInt() {
+        int value = getInt(checkRelative(4));
+        position += 4;
+        return value;
+    }
+
+    public int getInt(int index) {
+        checkIndex(index, 4);
+        int segment = segmentOf(index);
+        int offset = index - offsets[segment];
+        if (offset + 4 <= segments[segment].limit()) {
+            return segments[segment].getInt(offset);
+        }
+
+        return (int) assemble(index, 4);
+    }
+
+    public long getLong() {
+        long value = getLong(checkRelative(8));
+        position += 8;
+        return value;
+    }
+
+    public long getLong(int index) {
+        checkIndex(index, 8);
+        int segment = segmentOf(index);
+        int offset = index - offsets[segment];
+        if (offset + 8 <= segments[segment].limit()) {
+            return segments[segment].getLong(offset);
+        }
+
+        return assemble(index, 8);
+    }
+
+    /**
+     * Read an unsigned LEB128 varint of at most 5 bytes.
+     *
+     * @return the value
+     * @throws IllegalStateException if the varint is longer than 5 bytes
+     */
+    public int getVarInt() {
+        return (int) getVarint(5);
+    }
+
+    /**
+     * Read an unsigned LEB128 varint of at most 10 bytes.
+     *
+     * @return the value
+     * @throws IllegalStateException if the varint is longer than 10 bytes
+     */
+    public long getVarLong() {
+        return getVarint(10);
+    }
+
+    private long getVarint(int maxBytes) {
+        long value = 0;
+        int index = position;
+        for (int i = 0; i < maxBytes; i++) {
+            if (index >= length) {
+                throw new BufferUnderflowException();
+            }
+
+            byte b = get(index++);
+            value |= (long) (b & 0x7F) << (7 * i);
+            if (b >= 0) {
+                position = index;
+                return value;
+            }
+        }
+
+        throw new IllegalStateException("Malformed varint longer than " + maxBytes + " bytes at " + position);
+    }
+
+    /**
+     * Copy bytes to the array, across segments.
+     *
+     * @param dst the array
+     * @param offset the offset in the array
+     * @param len the bytes to copy
+     * @return this buffer
+     */
+    public CompositeBuffer get(byte[] dst, int offset, int len) {
+        if (offset < 0 || len < 0 || len > dst.length - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int index = checkRelative(len);
+        while (len > 0) {
+            int segment = segmentOf(index);
+            ByteBuffer buffer = segments[segment];
+            int segmentOffset = index - offsets[segment];
+            int copySize = Math.min(len, buffer.limit() - segmentOffset);
+
+            buffer.position(segmentOffset);
+            buffer.get(dst, offset, copySize);
+            index += copySize;
+            offset += copySize;
+            len -= copySize;
+        }
+
+        position = index;
+        return this;
+    }
+
+    public CompositeBuffer get(byte[] dst) {
+        return get(dst, 0, dst.length);
+    }
+
+    /**
+     * Copy the remaining bytes, as many as the destination has room for,
+     * across segments.
+     *
+     * @param dst the destination
+     * @return this buffer
+     */
+    public CompositeBuffer get(ByteBuffer dst) {
+        int len = Math.min(dst.remaining(), remaining());
+        int index = position;
+        while (len > 0) {
+            int segment = segmentOf(index);
+            ByteBuffer buffer = segments[segment];
+            int segmentOffset = index - offsets[segment];
+            int copySize = Math.min(len, buffer.limit() - segmentOffset);
+
+            ByteBuffer view = buffer.duplicate();
+            view.position(segmentOffset);
+            view.limit(segmentOffset + copySize);
+            dst.put(view);
+            index += copySize;
+            len -= copySize;
+        }
+
+        position = index;
+        return this;
+    }
+
+    public CompositeBuffer skip(int len) {
+        position = checkRelative(len) + len;
+        return this;
+    }
+
+    /**
+     * A view of the bytes from index, len long, sharing the segments. The
+     * slice has its own position and the byte order of this buffer.
+     *
+     * @param index the index
+     * @param len the length
+     * @return the slice
+     */
+    public CompositeBuffer slice(int index, int len) {
+        checkIndex(index, len);
+        List<ByteBuffer> slices = new ArrayList<ByteBuffer>(2);
+        int end = index + len;
+        while (index < end) {
+            int segment = segmentOf(index);
+            int segmentOffset = index - offsets[segment];
+            int sliceSize = Math.min(end - index, segments[segment].limit() - segmentOffset);
+
+            ByteBuffer view = segments[segment].duplicate();
+            view.position(segmentOffset);
+            view.limit(segmentOffset + sliceSize);
+            slices.add(view.slice());
+            index += sliceSize;
+        }
+
+        return new CompositeBuffer(slices.toArray(NO_SEGMENTS), order);
+    }
+
+    /**
+     * A view of the remaining bytes.
+     *
+     * @return the slice
+     */
+    public CompositeBuffer slice() {
+        return slice(position, remaining());
+    }
+
+    /**
+     * Read this buffer as a DataInput. DataInput specifies big endian, the
+     * adapter follows the byte order of this buffer however.
+     *
+     * @return the adapter, reading at the position of this buffer
+     */
+    public DataInput asDataInput() {
+        return new CompositeDataInput();
+    }
+
+    /**
+     * Search from the index, see {@link DelimiterSearch}.
+     *
+     * @param delimiter the search of a delimiter
+     * @param fromIndex the index to search from
+     * @return the index of the first delimiter from fromIndex, -1 if none
+     */
+    public int indexOf(DelimiterSearch delimiter, int fromIndex) {
+        return delimiter.indexOf(this, fromIndex);
+    }
+
+    /*package*/ ByteBuffer segment(int segment) {
+        return segments[segment];
+    }
+
+    /*package*/ int segmentOffset(int segment) {
+        return offsets[segment];
+    }
+
+    /*package*/ int segmentIndexOf(int index) {
+        return segmentOf(index);
+    }
+
+    /**
+     * Read the bytes from index, size bytes, as one value in big endian, then
+     * reverse it for little endian.
+     */
+    private long assemble(int index, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (get(index + i) & 0xFF);
+        }
+
+        if (order == ByteOrder.LITTLE_ENDIAN) {
+            value = Long.reverseBytes(value) >>> (64 - 8 * size);
+        }
+
+        return value;
+    }
+
+    private int segmentOf(int index) {
+        int segment = current;
+        if (index >= offsets[segment] && index < offsets[segment + 1]) {
+            return segment;
+        }
+
+        segment = Arrays.binarySearch(offsets, 0, segments.length, index);
+        if (segment < 0) {
+            segment = -segment - 2;
+        }
+
+        current = segment;
+        return segment;
+    }
+
+    private int checkRelative(int size) {
+        if (size > length - position) {
+            throw new BufferUnderflowException();
+        }
+
+        return position;
+    }
+
+    private void checkIndex(int index, int size) {
+        if (index < 0 || size < 0 || size > length - index) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size + ", length " + length);
+        }
+    }
+
+    private class CompositeDataInput implements DataInput {
+
+        @Override
+        public void readFully(byte[] b) throws IOException {
+            readFully(b, 0, b.length);
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            ensure(len);
+            get(b, off, len);
+        }
+
+        @Override
+        public int skipBytes(int n) throws IOException {
+            int skipped = Math.max(0, Math.min(n, remaining()));
+            skip(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            ensure(1);
+            return get();
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            return readByte() & 0xFF;
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            ensure(2);
+            return getShort();
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException {
+            return readShort() & 0xFFFF;
+        }
+
+        @Override
+        public char readChar() throws IOException {
+            return (char) readShort();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            ensure(4);
+            return getInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            ensure(8);
+            return getLong();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return Float.intBitsToFloat(readInt());
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return Double.longBitsToDouble(readLong());
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            if (!hasRemaining()) {
+                return null;
+            }
+
+            StringBuilder line = new StringBuilder();
+            while (hasRemaining()) {
+                int c = get() & 0xFF;
+                if (c == '\n') {
+                    break;
+                }
+                if (c == '\r') {
+                    if (hasRemaining() && get(position) == '\n') {
+                        position++;
+                    }
+                    break;
+                }
+                line.append((char) c);
+            }
+
+            return line.toString();
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            return DataInputStream.readUTF(this);
+        }
+
+        private void ensure(int size) throws EOFException {
+            if (size > remaining()) {
+                throw new EOFException(size + " bytes required, " + remaining() + " remaining");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Search of a delimiter in a {@link CompositeBuffer}, such as the end mark of
+ * a frame.
+ *
+ * A single byte delimiter is searched eight bytes at a time within each
+ * segment (SWAR: a zero byte of the word xored with the delimiter is found
+ * with a few arithmetic operations, exactly, with no false match). A longer
+ * delimiter is searched by Boyer-Moore-Horspool, skipping ahead by the
+ * distance of the last byte of the window to the end of the delimiter, and
+ * compares across segments, so a delimiter split between two buffers is
+ * found. A search resumed from the length minus the delimiter length plus
+ * one, after a miss, reads no byte twice but the last ones.
+ *
+ * A search is immutable and may be shared.
+ */
+public class DelimiterSearch {
+
+    private static final long ONES = 0x0101010101010101L;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private final byte[] delimiter;
+
+    private final long pattern;
+
+    /**
+     * For each byte, how far the window may move when it is the last byte of
+     * the window.
+     */
+    private final int[] shifts;
+
+    public DelimiterSearch(byte[] delimiter) {
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("Delimiter must not be empty!");
+        }
+
+        this.delimiter = delimiter.clone();
+        this.pattern = ONES * (delimiter[0] & 0xFF);
+        if (delimiter.length > 1) {
+            shifts = new int[256];
+            Arrays.fill(shifts, delimiter.length);
+            for (int i = 0; i < delimiter.length - 1; i++) {
+                shifts[delimiter[i] & 0xFF] = delimiter.length - 1 - i;
+            }
+        } else {
+            shifts = null;
+        }
+    }
+
+    public int length() {
+        return delimiter.length;
+    }
+
+    /**
+     * @param buffer the buffer
+     * @param fromIndex the index to search from
+     * @return the index of the first delimiter from fromIndex, -1 if none
+     */
+    public int indexOf(CompositeBuffer buffer, int fromIndex) {
+        fromIndex = Math.max(0, fromIndex);
+        if (fromIndex > buffer.length() - delimiter.length) {
+            return -1;
+        }
+
+        return delimiter.length == 1 ? scanByte(buffer, fromIndex) : horspool(buffer, fromIndex);
+    }
+
+    private int scanByte(CompositeBuffer buffer, int fromIndex) {
+        for (int segment = buffer.segmentIndexOf(fromIndex); segment < buffer.getSegmentCount(); segment++) {
+            ByteBuffer bytes = buffer.segment(segment);
+            int segmentOffset = buffer.segmentOffset(segment);
+            int found = scanSegment(bytes, Math.max(0, fromIndex - segmentOffset));
+            if (found >= 0) {
+                return segmentOffset + found;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return the offset of the delimiter byte in the segment, -1 if none
+     */
+    private int scanSegment(ByteBuffer bytes, int offset) {
+        int limit = bytes.limit();
+        boolean bigEndian = bytes.order() == ByteOrder.BIG_ENDIAN;
+        for (; offset + 8 <= limit; offset += 8) {
+            long word = bytes.getLong(offset) ^ pattern;
+            //the high bit set in each zero byte only
+            long zeros = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+            if (zeros != 0) {
+                return offset + (bigEndian
+                        ? Long.numberOfLeadingZeros(zeros) >>> 3
+                        : Long.numberOfTrailingZeros(zeros) >>> 3);
+            }
+        }
+
+        byte target = delimiter[0];
+        for (; offset < limit; offset++) {
+            if (bytes.get(offset) == target) {
+                return offset;
+            }
+        }
+
+        return -1;
+    }
+
+    private int horspool(CompositeBuffer buffer, int fromIndex) {
+        int last = delimiter.length - 1;
+        int end = buffer.length() - delimiter.length;
+        int position = fromIndex;
+        while (position <= end) {
+            int segment = buffer.segmentIndexOf(position);
+            int segmentOffset = buffer.segmentOffset(segment);
+            ByteBuffer bytes = buffer.segment(segment);
+
+            //the windows within the segment, read from it directly
+            int localEnd = Math.min(end - segmentOffset, bytes.limit() - delimiter.length);
+            int local = position - segmentOffset;
+            while (local <= localEnd) {
+                byte lastByte = bytes.get(local + last);
+                if (lastByte == delimiter[last]) {
+                    int i = last - 1;
+                    while (i >= 0 && bytes.get(local + i) == delimiter[i]) {
+                        i--;
+                    }
+
+                    if (i < 0) {
+                        return segmentOffset + local;
+                    }
+                }
+
+                local += shifts[lastByte & 0xFF];
+            }
+            position = segmentOffset + local;
+
+            //the windows spanning the segment end
+            while (position <= end && position - segmentOffset < bytes.limit()) {
+                byte lastByte = buffer.get(position + last);
+                if (lastByte == delimiter[last]) {
+                    int i = last - 1;
+                    while (i >= 0 && buffer.get(position + i) == delimiter[i]) {
+                        i--;
+                    }
+
+                    if (i < 0) {
+                        return position;
+                    }
+                }
+
+                position += shifts[lastByte & 0xFF];
+            }
+        }
+
+        return -1;
+    }
+
+}
@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote;
+
+import io.yarn.common.nio.DirectBufferCleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Slab allocation of direct memory.
+ *
+ * Direct memory is allocated in chunks of chunkSize bytes, each chunk serving
+ * one power of two size class as equal slots, so a slot is aligned to its
+ * size within the chunk. Freed slots go back to the free list of their chunk.
+ * A chunk whose slots are all free is released at once, freeing its native
+ * memory, unless it is the last chunk of its size class with free slots.
+ *
+ * Sizes above chunkSize are allocated directly. A slice must not be used
+ * after it is freed.
+ *
+ * With a {@link MemoryBudget}, each chunk reserves chunkSize bytes of it while
+ * allocated, and each direct allocation its size, so the budget counts the
+ * native memory held rather than the slots in use.
+ */
+public class DirectMemoryArena {
+
+    private final int chunkSize;
+
+    private final int minSizeShift;
+
+    private final SizeClassSlabs[] slabs;
+
+    private final MemoryBudget memoryBudget;
+
+    /**
+     * @param chunkSize the bytes of a chunk, rounded up to a power of two
+     * @param minBufferSize the smallest size class
+     */
+    public DirectMemoryArena(int chunkSize, int minBufferSize) {
+        this(chunkSize, minBufferSize, null);
+    }
+
+    /**
+     * @param chunkSize the bytes of a chunk, rounded up to a power of two
+     * @param minBufferSize the smallest size class
+     * @param memoryBudget the budget the chunks are reserved from, none if
+     * null
+     */
+    public DirectMemoryArena(int chunkSize, int minBufferSize, MemoryBudget memoryBudget) {
+        if (minBufferSize < 1 || chunkSize < minBufferSize) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize + " for buffers of " + minBufferSize);
+        }
+
+        int chunkShift = 32 - Integer.numberOfLeadingZeros(chunkSize - 1);
+        this.chunkSize = 1 << chunkShift;
+        this.minSizeShift = 32 - Integer.numberOfLeadingZeros(minBufferSize - 1);
+        this.memoryBudget = memoryBudget;
+        this.slabs = new SizeClassSlabs[chunkShift - minSizeShift + 1];
+        for (int i = 0; i < slabs.length; i++) {
+            slabs[i] = new SizeClassSlabs(1 << (minSizeShift + i));
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return the chunks allocated over all size classes
+     */
+    public int getChunks() {
+        int chunks = 0;
+        for (SizeClassSlabs sizeClassSlabs : slabs) {
+            chunks += sizeClassSlabs.getChunks();
+        }
+
+        return chunks;
+    }
+
+    /**
+     * @return the direct bytes held in chunks
+     */
+    public long getReservedBytes() {
+        return (long) getChunks() * chunkSize;
+    }
+
+    /**
+     * Allocate a slot of the size rounded up to its size class.
+     *
+     * @param size the bytes required
+     * @return a cleared buffer with a capacity of the size class
+     * @throws MemoryBudgetExceededException if a new chunk would pass the hard
+     * limit of the budget
+     */
+    public ByteBuffer allocate(int size) {
+        SizeClassSlabs sizeClassSlabs = slabsOf(size);
+        if (sizeClassSlabs == null) {
+            reserve(size);
+            try {
+                return ByteBuffer.allocateDirect(size);
+            } catch (OutOfMemoryError oomError) {
+                release(size);
+                throw oomError;
+            }
+        }
+
+        return sizeClassSlabs.allocate();
+    }
+
+    /**
+     * Give a slot back to its chunk, buffers not allocated by this arena are
+     * freed if they are direct.
+     *
+     * @param byteBuffer the buffer
+     */
+    public void free(ByteBuffer byteBuffer) {
+        SizeClassSlabs sizeClassSlabs = slabsOf(byteBuffer.capacity());
+        if (sizeClassSlabs == null) {
+            //allocated directly above
+            DirectBufferCleaner.clean(byteBuffer);
+            release(byteBuffer.capacity());
+        } else if (!sizeClassSlabs.free(byteBuffer)) {
+            DirectBufferCleaner.clean(byteBuffer);
+        }
+    }
+
+    private void reserve(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.reserve(bytes);
+        }
+    }
+
+    private void release(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
+    private SizeClassSlabs slabsOf(int size) {
+        int shift = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        int index = Math.max(0, shift - minSizeShift);
+        return index < slabs.length ? slabs[index] : null;
+    }
+
+    /**
+     * The chunks of a size class, guarded by itself. The budget is reserved
+     * and released outside the lock.
+     */
+    private class SizeClassSlabs {
+
+        private final int slotSize;
+
+        private final int slotsPerChunk;
+
+        private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+        /**
+         * The slices handed out so far, to find the chunk of a freed slice.
+         */
+        private final Map<ByteBuffer, Slot> sliceSlots = new IdentityHashMap<ByteBuffer, Slot>();
+
+        /**
+         * The chunk slots are taken from until it is full.
+         */
+        private Chunk current;
+
+        private SizeClassSlabs(int slotSize) {
+            this.slotSize = slotSize;
+            this.slotsPerChunk = chunkSize / slotSize;
+        }
+
+        private synchronized int getChunks() {
+            return chunks.size();
+        }
+
+        /**
+         * Take a free slot, reserving and allocating a new chunk outside the
+         * lock if there is none: the budget may call its listeners, which
+         * may free into the arena.
+         */
+        private ByteBuffer allocate() {
+            synchronized (this) {
+                ByteBuffer slice = takeSlot();
+                if (slice != null) {
+                    return slice;
+                }
+            }
+
+            reserve(chunkSize);
+            Chunk chunk;
+            try {
+                chunk = new Chunk(this);
+            } catch (OutOfMemoryError oomError) {
+                DirectMemoryArena.this.release(chunkSize);
+                throw oomError;
+            }
+
+            ByteBuffer slice;
+            synchronized (this) {
+                //a slot may have been freed, or a chunk added, meanwhile
+                slice = takeSlot();
+                if (slice == null) {
+                    chunks.add(chunk);
+                    current = chunk;
+                    return takeSlot();
+                }
+            }
+
+            releaseChunk(chunk);
+            return slice;
+        }
+
+        /**
+         * @return a slot of a chunk with free slots, null if there is none
+         */
+        private ByteBuffer takeSlot() {
+            if (current == null || current.freeCount == 0) {
+                current = null;
+                for (Chunk chunk : chunks) {
+                    if (chunk.freeCount > 0) {
+                        current = chunk;
+                        break;
+                    }
+                }
+
+                if (current == null) {
+                    return null;
+                }
+            }
+
+            int index = current.freeSlots[--current.freeCount];
+            Slot slot = current.slots[index];
+            if (slot == null) {
+                ByteBuffer view = current.memory.duplicate();
+                view.limit((index + 1) * slotSize);
+                view.position(index * slotSize);
+                slot = new Slot(current, index, view.slice());
+                current.slots[index] = slot;
+                sliceSlots.put(slot.slice, slot);
+            }
+
+            slot.inUse = true;
+            slot.slice.clear();
+            return slot.slice;
+        }
+
+        private boolean free(ByteBuffer byteBuffer) {
+            Chunk released = null;
+            synchronized (this) {
+                Slot slot = sliceSlots.get(byteBuffer);
+                if (slot == null) {
+                    return false;
+                }
+
+                if (!slot.inUse) {
+                    throw new IllegalStateException("Buffer is freed already!");
+                }
+
+                slot.inUse = false;
+                Chunk chunk = slot.chunk;
+                chunk.freeSlots[chunk.freeCount++] = slot.index;
+
+                if (chunk.freeCount == slotsPerChunk && chunks.size() > 1 && hasOtherFreeSlots(chunk)) {
+                    remove(chunk);
+                    released = chunk;
+                }
+            }
+
+            //outside the lock, the budget may call its listeners
+            if (released != null) {
+                releaseChunk(released);
+            }
+
+            return true;
+        }
+
+        private boolean hasOtherFreeSlots(Chunk chunk) {
+            for (Chunk other : chunks) {
+                if (other != chunk && other.freeCount > 0) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private void remove(Chunk chunk) {
+            chunks.remove(chunk);
+            if (current == chunk) {
+                current = null;
+            }
+
+            for (Slot slot : chunk.slots) {
+                if (slot != null) {
+                    sliceSlots.remove(slot.slice);
+                }
+            }
+        }
+
+        private void releaseChunk(Chunk chunk) {
+            DirectBufferCleaner.clean(chunk.memory);
+            DirectMemoryArena.this.release(chunkSize);
+        }
+    }
+
+    private class Chunk {
+
+        private final ByteBuffer memory;
+
+        private final Slot[] slots;
+
+        private final int[] freeSlots;
+
+        private int freeCount;
+
+        private Chunk(SizeClassSlabs sizeClassSlabs) {
+            this.memory = ByteBuffer.allocateDirect(chunkSize);
+            this.slots = new Slot[sizeClassSlabs.slotsPerChunk];
+            this.freeSlots = new int[sizeClassSlabs.slotsPerChunk];
+            //hand out the lowest slots first
+            for (int i = 0; i < freeSlots.length; i++) {
+                freeSlots[i] = freeSlots.length - 1 - i;
+            }
+            this.freeCount = freeSlots.length;
+        }
+    }
+
+    private static class Slot {
+
+        private final Chunk chunk;
+
+        private final int index;
+
+        private final ByteBuffer slice;
+
+        private boolean inUse = false;
+
+        private Slot(Chunk chunk, int index, ByteBuffer slice) {
+            this.chunk = chunk;
+            this.index = index;
+            this.slice = slice;
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A budget of direct memory shared by buffer pools and connections.
+ *
+ * Memory is reserved before it is allocated and released once freed. Past
+ * the soft limit the budget is under pressure and its listeners are told, so
+ * that pools trim their caches and event loops stop reading; the pressure is
+ * relieved once the memory used falls an eighth below the soft limit, so
+ * that it does not flap. Reserving past the hard limit fails at once with a
+ * {@link MemoryBudgetExceededException}, rather than with an
+ * OutOfMemoryError of the direct memory.
+ *
+ * Listeners are held weakly, so that a pool or event loop dropped without
+ * being closed is not kept by the process wide budget: whoever adds a
+ * listener must keep a reference to it.
+ */
+public class MemoryBudget {
+
+    private static final Logger _logger = Logger.getLogger(MemoryBudget.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(MemoryBudget.class);
+
+    private static volatile MemoryBudget defaultBudget;
+
+    private final long softLimit;
+
+    private final long hardLimit;
+
+    private final long relieveLimit;
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    private final AtomicBoolean underPressure = new AtomicBoolean(false);
+
+    private final List<WeakReference<MemoryPressureListener>> listeners = new CopyOnWriteArrayList<WeakReference<MemoryPressureListener>>();
+
+    public MemoryBudget(long softLimit, long hardLimit) {
+        if (softLimit <= 0 || hardLimit < softLimit) {
+            throw new IllegalArgumentException("Invalid limits " + softLimit + " - " + hardLimit);
+        }
+
+        this.softLimit = softLimit;
+        this.hardLimit = hardLimit;
+        this.relieveLimit = softLimit - softLimit / 8;
+    }
+
+    /**
+     * The process wide budget, by default with a soft limit of three quarters
+     * and a hard limit of nine tenths of the max direct memory.
+     *
+     * @return the default budget
+     */
+    public static MemoryBudget getDefault() {
+        MemoryBudget budget = defaultBudget;
+        if (budget == null) {
+            synchronized (MemoryBudget.class) {
+                budget = defaultBudget;
+                if (budget == null) {
+                    long maxDirectMemory = maxDirectMemory();
+                    budget = new MemoryBudget(maxDirectMemory / 4 * 3, maxDirectMemory / 10 * 9);
+                    defaultBudget = budget;
+                }
+            }
+        }
+
+        return budget;
+    }
+
+    /**
+     * Replace the process wide budget, for the pools and connections created
+     * afterwards.
+     *
+     * @param memoryBudget the budget
+     */
+    public static void setDefault(MemoryBudget memoryBudget) {
+        defaultBudget = memoryBudget;
+    }
+
+    private static long maxDirectMemory() {
+        try {
+            Method maxDirectMemory = Class.forName("sun.misc.VM").getMethod("maxDirectMemory");
+            return ((Number) maxDirectMemory.invoke(null)).longValue();
+        } catch (Exception | LinkageError ex) {
+            //the direct memory defaults to the max heap
+            return Runtime.getRuntime().maxMemory();
+        }
+    }
+
+    public long getSoftLimit() {
+        return softLimit;
+    }
+
+    public long getHardLimit() {
+        return hardLimit;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public boolean isUnderPressure() {
+        return underPressure.get();
+    }
+
+    /**
+     * Add a listener, held weakly.
+     *
+     * @param listener the listener
+     */
+    public void addMemoryPressureListener(MemoryPressureListener listener) {
+        removeMemoryPressureListener(null);
+        listeners.add(new WeakReference<MemoryPressureListener>(listener));
+    }
+
+    /**
+     * Remove a listener, and the listeners already collected.
+     *
+     * @param listener the listener
+     */
+    public void removeMemoryPressureListener(MemoryPressureListener listener) {
+        for (WeakReference<MemoryPressureListener> reference : listeners) {
+            MemoryPressureListener added = reference.get();
+            if (added == null || added == listener) {
+                listeners.remove(reference);
+            }
+        }
+    }
+
+    /**
+     * Reserve memory unless the hard limit would be passed.
+     *
+     * @param bytes the bytes
+     * @return false if the hard limit would be passed
+     */
+    public boolean tryReserve(long bytes) {
+        for (;;) {
+            long used = usedBytes.get();
+            if (used + bytes > hardLimit) {
+                return false;
+            }
+
+            if (usedBytes.compareAndSet(used, used + bytes)) {
+                break;
+            }
+        }
+
+        checkPressure();
+        return true;
+    }
+
+    /**
+     * Reserve memory, failing if the hard limit would be passed.
+     *
+     * @param bytes the bytes
+     * @throws MemoryBudgetExceededException if the hard limit would be passed
+     */
+    public void reserve(long bytes) {
+        if (!tryReserve(bytes)) {
+            throw new MemoryBudgetExceededException("Could not reserve " + bytes + " bytes, "
+                    + usedBytes.get() + " of " + hardLimit + " bytes are used");
+        }
+    }
+
+    /**
+     * Release memory reserved before.
+     *
+     * @param bytes the bytes
+     */
+    public void release(long bytes) {
+        usedBytes.addAndGet(-bytes);
+        checkPressure();
+    }
+
+    private void checkPressure() {
+        long used = usedBytes.get();
+        if (used >= softLimit) {
+            if (underPressure.compareAndSet(false, true)) {
+                _logger.log(Level.INFO, strings.get("memory.pressure.raised", used, softLimit));
+                firePressureChanged(true);
+            }
+        } else if (used < relieveLimit && underPressure.compareAndSet(true, false)) {
+            _logger.log(Level.INFO, strings.get("memory.pressure.relieved", used, softLimit));
+            firePressureChanged(false);
+        }
+    }
+
+    private void firePressureChanged(boolean pressure) {
+        for (WeakReference<MemoryPressureListener> reference : listeners) {
+            MemoryPressureListener listener = reference.get();
+            if (listener == null) {
+                listeners.remove(reference);
+                continue;
+            }
+
+            try {
+                listener.memoryPressureChanged(this, pressure);
+            } catch (RuntimeException rtEx) {
+                _logger.log(Level.WARNING, strings.get("memory.listener.failed", listener), rtEx);
+            }
+        }
+    }
+
+}
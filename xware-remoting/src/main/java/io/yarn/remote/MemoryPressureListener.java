@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote;
+
+/**
+ * Notified when a {@link MemoryBudget} goes over its soft limit, and when it
+ * is relieved.
+ *
+ * Called on the thread that reserved or released the memory, so the listener
+ * must return quickly, handing any real work to its own thread. The budget
+ * holds its listeners weakly.
+ */
+public interface MemoryPressureListener {
+
+    /**
+     * @param memoryBudget the budget
+     * @param underPressure true if the soft limit was reached, false if the
+     * pressure is relieved
+     */
+    public void memoryPressureChanged(MemoryBudget memoryBudget, boolean underPressure);
+
+}
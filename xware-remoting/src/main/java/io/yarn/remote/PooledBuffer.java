@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted handle of a buffer of a {@link BufferPool}.
+ *
+ * The buffer goes back to the pool exactly once, when the last reference is
+ * released. Slices and duplicates share the count of the handle they are
+ * made from, so a handle may be split into views and passed to other threads
+ * without copying; retain before passing and release when done.
+ */
+public class PooledBuffer implements ReferenceCounted {
+
+    private final Root root;
+
+    private final ByteBuffer buffer;
+
+    /*package*/ PooledBuffer(BufferPool bufferPool, ByteBuffer buffer) {
+        this.root = new Root(bufferPool, buffer);
+        this.buffer = buffer;
+    }
+
+    private PooledBuffer(Root root, ByteBuffer buffer) {
+        this.root = root;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the buffer of this view
+     * @throws IllegalStateException if released
+     */
+    public ByteBuffer buffer() {
+        ensureAccessible();
+        return buffer;
+    }
+
+    /**
+     * A view of the remaining bytes, sharing the reference count.
+     *
+     * @return the slice
+     */
+    public PooledBuffer slice() {
+        ensureAccessible();
+        return new PooledBuffer(root, buffer.slice().order(buffer.order()));
+    }
+
+    /**
+     * A view of the bytes from index, length long, sharing the reference
+     * count.
+     *
+     * @param index the index in this view
+     * @param length the length
+     * @return the slice
+     */
+    public PooledBuffer slice(int index, int length) {
+        ensureAccessible();
+        if (index < 0 || length < 0 || index + length > buffer.capacity()) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length + ", capacity " + buffer.capacity());
+        }
+
+        ByteBuffer view = buffer.duplicate();
+        view.limit(index + length);
+        view.position(index);
+        return new PooledBuffer(root, view.slice().order(buffer.order()));
+    }
+
+    /**
+     * A view of all bytes with its own position and limit, sharing the
+     * reference count.
+     *
+     * @return the duplicate
+     */
+    public PooledBuffer duplicate() {
+        ensureAccessible();
+        return new PooledBuffer(root, buffer.duplicate().order(buffer.order()));
+    }
+
+    /**
+     * A slice holding a reference of its own.
+     *
+     * @return the retained slice
+     */
+    public PooledBuffer retainedSlice() {
+        PooledBuffer slice = slice();
+        retain();
+        return slice;
+    }
+
+    @Override
+    public int refCnt() {
+        return root.refCnt.get();
+    }
+
+    @Override
+    public void retain() {
+        for (;;) {
+            int refCnt = root.refCnt.get();
+            if (refCnt <= 0) {
+                throw new IllegalStateException("Buffer is released already!");
+            }
+
+            if (root.refCnt.compareAndSet(refCnt, refCnt + 1)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean release() {
+        for (;;) {
+            int refCnt = root.refCnt.get();
+            if (refCnt <= 0) {
+                throw new IllegalStateException("Buffer is released already!");
+            }
+
+            if (root.refCnt.compareAndSet(refCnt, refCnt - 1)) {
+                if (refCnt == 1) {
+                    root.bufferPool.release(root.buffer);
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    private void ensureAccessible() {
+        if (root.refCnt.get() <= 0) {
+            throw new IllegalStateException("Buffer is released already!");
+        }
+    }
+
+    /**
+     * The pooled buffer and the count shared by its views.
+     */
+    private static class Root {
+
+        private final BufferPool bufferPool;
+
+        private final ByteBuffer buffer;
+
+        private final AtomicInteger refCnt = new AtomicInteger(1);
+
+        private Root(BufferPool bufferPool, ByteBuffer buffer) {
+            this.bufferPool = bufferPool;
+            this.buffer = buffer;
+        }
+    }
+
+}
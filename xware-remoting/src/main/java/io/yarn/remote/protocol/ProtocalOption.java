@@ -22,12 +22,23 @@ package io.yarn.remote.protocol;
  */
 public class ProtocalOption {
 
+    /**
+     * The max frame length when framing by length field or end mark and no
+     * length is set, 16 MB.
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
     private String name;
 
     private boolean useLength;
 
     private boolean useEndMark;
 
+    /**
+     * The length of every frame; with useLength or useEndMark the max frame
+     * length, 0 for {@link #DEFAULT_MAX_FRAME_LENGTH}. A frame announced or
+     * buffered beyond it fails the stream.
+     */
     private int length;
 
     private String endMark;
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote.protocol;
+
+import io.yarn.remote.BufferPool;
+import io.yarn.remote.server.Connection;
+import io.yarn.remote.server.ConnectionHandler;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection handler framing the bytes of each connection into packets,
+ * with a {@link ProtocolDecoder} attached to the connection.
+ *
+ * Each packet is passed to {@link #packetReceived(Connection, ProtocolPacket)}
+ * holding a reference of its buffers, which the subclass releases once done,
+ * on the event loop or after handing the packet to another thread. A
+ * malformed stream closes the connection.
+ */
+public abstract class ProtocolConnectionHandler implements ConnectionHandler {
+
+    private final ProtocalOption option;
+
+    private final BufferPool bufferPool;
+
+    public ProtocolConnectionHandler(ProtocalOption option, BufferPool bufferPool) {
+        this.option = option;
+        this.bufferPool = bufferPool;
+    }
+
+    public ProtocalOption getOption() {
+        return option;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public void connected(Connection connection) {
+        connection.setAttachment(new ProtocolDecoder(option, bufferPool));
+    }
+
+    @Override
+    public void received(Connection connection, ByteBuffer data) throws IOException {
+        List<ProtocolPacket> packets = new ArrayList<ProtocolPacket>(4);
+        ((ProtocolDecoder) connection.getAttachment()).decode(data, packets);
+        for (int i = 0; i < packets.size(); i++) {
+            try {
+                packetReceived(connection, packets.get(i));
+            } catch (IOException | RuntimeException ex) {
+                //the packets not handed over are released here
+                for (int j = i + 1; j < packets.size(); j++) {
+                    packets.get(j).release();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    @Override
+    public void closed(Connection connection) {
+        Object attachment = connection.getAttachment();
+        if (attachment instanceof ProtocolDecoder) {
+            ((ProtocolDecoder) attachment).close();
+        }
+    }
+
+    /**
+     * Handle a packet, called on the event loop.
+     *
+     * @param connection the connection
+     * @param packet the packet, to be released
+     * @throws IOException to close the connection
+     */
+    protected abstract void packetReceived(Connection connection, ProtocolPacket packet) throws IOException;
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote.protocol;
+
+import io.yarn.remote.BufferPool;
+import io.yarn.remote.CompositeBuffer;
+import io.yarn.remote.DelimiterSearch;
+import io.yarn.remote.PooledBuffer;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * An incremental frame decoder, framing the bytes of a stream as configured
+ * by a {@link ProtocalOption}:
+ *
+ * with useLength the bytes from beginIndex to endIndex, exclusive, hold the
+ * length of the data following them in big endian, the packet holding the
+ * whole frame; with useEndMark a frame ends at the end mark, the packet
+ * holding the bytes before it; otherwise every frame is length bytes long.
+ * When framing by length field or end mark, length is the max frame length,
+ * 0 for {@link ProtocalOption#DEFAULT_MAX_FRAME_LENGTH}, so that a peer can
+ * not make the decoder buffer without bound.
+ *
+ * Data is fed as it is read, a frame may arrive in any number of pieces. The
+ * bytes are copied once into pooled buffers; the packets are slices of them,
+ * each holding a reference of its buffers, to be released by whoever takes
+ * the packet. The decoder holds the state of one stream and is not thread
+ * safe; {@link #close()} releases the buffers it holds.
+ */
+public class ProtocolDecoder {
+
+    private final ProtocalOption option;
+
+    private final BufferPool bufferPool;
+
+    private final DelimiterSearch endMark;
+
+    private final int maxFrameLength;
+
+    /**
+     * The pooled buffers holding the bytes not decoded yet, the last one
+     * written to up to its position.
+     */
+    private final Deque<PooledBuffer> chunks = new ArrayDeque<PooledBuffer>();
+
+    /**
+     * The index of the first byte not decoded in the first chunk.
+     */
+    private int readIndex = 0;
+
+    /**
+     * The index the end mark search resumes from, the bytes before it hold
+     * no end mark.
+     */
+    private int searchIndex = 0;
+
+    private int packetId = 0;
+
+    private boolean closed = false;
+
+    public ProtocolDecoder(ProtocalOption option, BufferPool bufferPool) {
+        if (option.isUseLength()) {
+            int fieldLength = option.getEndIndex() - option.getBeginIndex();
+            if (option.getBeginIndex() < 0 || fieldLength < 1 || fieldLength > 8) {
+                throw new IllegalArgumentException("Invalid length field " + option.getBeginIndex() + " - " + option.getEndIndex());
+            }
+        } else if (!option.isUseEndMark() && option.getLength() < 1) {
+            throw new IllegalArgumentException("Invalid frame length " + option.getLength());
+        }
+
+        this.option = option;
+        this.bufferPool = bufferPool;
+        if (!option.isUseLength() && option.isUseEndMark()) {
+            if (option.getEndMark() == null || option.getEndMark().isEmpty()) {
+                throw new IllegalArgumentException("End mark must not be empty!");
+            }
+            this.endMark = new DelimiterSearch(option.getEndMark().getBytes(StandardCharsets.UTF_8));
+        } else {
+            this.endMark = null;
+        }
+        this.maxFrameLength = option.getLength() > 0 ? option.getLength() : ProtocalOption.DEFAULT_MAX_FRAME_LENGTH;
+    }
+
+    public ProtocalOption getOption() {
+        return option;
+    }
+
+    /**
+     * @return the bytes fed and not framed yet
+     */
+    public int getPendingBytes() {
+        int pending = -readIndex;
+        for (PooledBuffer chunk : chunks) {
+            pending += chunk.buffer().position();
+        }
+
+        return pending;
+    }
+
+    /**
+     * Feed the remaining bytes of the data, consuming them, and add the
+     * packets completed to out.
+     *
+     * @param data the bytes read
+     * @param out the packets decoded
+     * @throws ProtocolException if a frame is malformed or too long, the
+     * stream cannot be decoded further; the packets of this call are then
+     * released and not added
+     */
+    public void decode(ByteBuffer data, List<ProtocolPacket> out) throws ProtocolException {
+        if (closed) {
+            throw new IllegalStateException("Decoder is closed already!");
+        }
+
+        append(data);
+
+        int added = out.size();
+        CompositeBuffer pending = new CompositeBuffer(pendingBuffers());
+        int frameStart = 0;
+        try {
+            for (;;) {
+                CompositeBuffer frame = pending.slice(frameStart, pending.length() - frameStart);
+                int frameLength;
+                int dataLength;
+                if (option.isUseLength()) {
+                    frameLength = lengthFrame(frame);
+                    dataLength = frameLength;
+                } else if (endMark != null) {
+                    dataLength = markFrame(frame);
+                    frameLength = dataLength + (dataLength >= 0 ? endMark.length() : 0);
+                } else {
+                    frameLength = frame.length() >= option.getLength() ? option.getLength() : -1;
+                    dataLength = frameLength;
+                }
+
+                if (frameLength < 0) {
+                    break;
+                }
+
+                out.add(createPacket(frameStart, dataLength));
+                frameStart += frameLength;
+                searchIndex = 0;
+            }
+        } catch (ProtocolException protocolEx) {
+            //the caller drops out on failure, release the packets of this call
+            while (out.size() > added) {
+                out.remove(out.size() - 1).release();
+            }
+            throw protocolEx;
+        }
+
+        consume(frameStart);
+    }
+
+    /**
+     * @return the frame length, -1 if not all there yet
+     */
+    private int lengthFrame(CompositeBuffer frame) throws ProtocolException {
+        int endIndex = option.getEndIndex();
+        if (frame.length() < endIndex) {
+            return -1;
+        }
+
+        long length = 0;
+        for (int i = option.getBeginIndex(); i < endIndex; i++) {
+            length = (length << 8) | (frame.get(i) & 0xFF);
+        }
+
+        long frameLength = endIndex + length;
+        if (length < 0 || frameLength > maxFrameLength) {
+            throw new ProtocolException("Frame of " + frameLength + " bytes is over the max of " + maxFrameLength);
+        }
+
+        return frame.length() >= frameLength ? (int) frameLength : -1;
+    }
+
+    /**
+     * @return the data length before the end mark, -1 if not found yet
+     */
+    private int markFrame(CompositeBuffer frame) throws ProtocolException {
+        int index = frame.indexOf(endMark, searchIndex);
+        if (index >= 0) {
+            if (index > maxFrameLength) {
+                throw new ProtocolException("Frame of " + index + " bytes is over the max of " + maxFrameLength);
+            }
+            return index;
+        }
+
+        //a mark may start in the last bytes
+        searchIndex = Math.max(0, frame.length() - endMark.length() + 1);
+        if (searchIndex > maxFrameLength) {
+            throw new ProtocolException("No end mark in " + frame.length() + " bytes, over the max frame of " + maxFrameLength);
+        }
+        return -1;
+    }
+
+    /**
+     * A packet of slices of the chunks, from the pending index, length long.
+     */
+    private ProtocolPacket createPacket(int index, int length) {
+        List<PooledBuffer> slices = new ArrayList<PooledBuffer>(1);
+        int chunkStart = -readIndex;
+        for (PooledBuffer chunk : chunks) {
+            int chunkEnd = chunkStart + chunk.buffer().position();
+            if (length > 0 && index < chunkEnd) {
+                int offset = index - chunkStart;
+                int sliceLength = Math.min(length, chunkEnd - index);
+                slices.add(chunk.slice(offset, sliceLength));
+                chunk.retain();
+                index += sliceLength;
+                length -= sliceLength;
+            }
+            chunkStart = chunkEnd;
+        }
+
+        ProtocolPacket packet = new ProtocolPacket();
+        packet.setId(packetId++);
+        packet.setPooledBuffers(slices.toArray(new PooledBuffer[slices.size()]));
+        int packetLength = 0;
+        for (ByteBuffer buffer : packet.getDataBuffers()) {
+            packetLength += buffer.remaining();
+        }
+        packet.setLength(packetLength);
+        return packet;
+    }
+
+    private void append(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            PooledBuffer chunk = chunks.peekLast();
+            if (chunk == null || !chunk.buffer().hasRemaining()) {
+                chunk = bufferPool.acquirePooled(Math.max(bufferPool.getBufferAllocateSize(), 1));
+                chunks.addLast(chunk);
+            }
+
+            ByteBuffer buffer = chunk.buffer();
+            int copySize = Math.min(buffer.remaining(), data.remaining());
+            ByteBuffer piece = data.duplicate();
+            piece.limit(piece.position() + copySize);
+            buffer.put(piece);
+            data.position(data.position() + copySize);
+        }
+    }
+
+    private ByteBuffer[] pendingBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[chunks.size()];
+        int i = 0;
+        for (PooledBuffer chunk : chunks) {
+            ByteBuffer view = chunk.buffer().duplicate();
+            view.flip();
+            if (i == 0) {
+                view.position(readIndex);
+            }
+            buffers[i++] = view;
+        }
+
+        return buffers;
+    }
+
+    /**
+     * Drop the decoded bytes, releasing the chunks read to their end.
+     */
+    private void consume(int consumed) {
+        readIndex += consumed;
+        for (;;) {
+            PooledBuffer chunk = chunks.peekFirst();
+            if (chunk == null) {
+                break;
+            }
+
+            ByteBuffer buffer = chunk.buffer();
+            if (readIndex < buffer.position() || (buffer.hasRemaining() && chunks.size() == 1)) {
+                break;
+            }
+
+            readIndex -= buffer.position();
+            chunks.pollFirst();
+            chunk.release();
+        }
+    }
+
+    /**
+     * Release the buffers held, the bytes not framed are dropped.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        PooledBuffer chunk;
+        while ((chunk = chunks.pollFirst()) != null) {
+            chunk.release();
+        }
+    }
+
+}
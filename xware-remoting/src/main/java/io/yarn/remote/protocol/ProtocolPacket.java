@@ -16,13 +16,16 @@
  */
 package io.yarn.remote.protocol;
 
+import io.yarn.remote.PooledBuffer;
+import io.yarn.remote.ReferenceCounted;
 import java.nio.ByteBuffer;
 
 /**
- *
- *
+ * A packet whose data may be held in pooled buffers. Such a packet holds a
+ * reference of each of them: retain it before handing it to another thread,
+ * and release it once done so that the buffers go back to the pool.
  */
-public class ProtocolPacket {
+public class ProtocolPacket implements ReferenceCounted {
 
     private int id;
 
@@ -30,6 +33,10 @@ public class ProtocolPacket {
 
     private ByteBuffer[] dataBuffers;
 
+    private PooledBuffer[] pooledBuffers;
+
+    private int refCnt = 1;
+
     public int getId() {
         return id;
     }
@@ -54,4 +61,73 @@ public class ProtocolPacket {
         this.dataBuffers = dataBuffers;
     }
 
-}
\ No newline at end of file
+    public PooledBuffer[] getPooledBuffers() {
+        return pooledBuffers;
+    }
+
+    /**
+     * Hold the data in pooled buffers, taking over a reference of each. The
+     * buffers held before are released.
+     *
+     * @param pooledBuffers the buffers
+     */
+    public void setPooledBuffers(PooledBuffer... pooledBuffers) {
+        ByteBuffer[] buffers = new ByteBuffer[pooledBuffers.length];
+        for (int i = 0; i < pooledBuffers.length; i++) {
+            buffers[i] = pooledBuffers[i].buffer();
+        }
+
+        PooledBuffer[] previous;
+        synchronized (this) {
+            if (refCnt <= 0) {
+                throw new IllegalStateException("Packet is released already!");
+            }
+
+            previous = this.pooledBuffers;
+            this.pooledBuffers = pooledBuffers;
+            this.dataBuffers = buffers;
+        }
+
+        if (previous != null) {
+            for (PooledBuffer pooledBuffer : previous) {
+                pooledBuffer.release();
+            }
+        }
+    }
+
+    @Override
+    public synchronized int refCnt() {
+        return refCnt;
+    }
+
+    @Override
+    public synchronized void retain() {
+        if (refCnt <= 0) {
+            throw new IllegalStateException("Packet is released already!");
+        }
+
+        refCnt++;
+    }
+
+    @Override
+    public boolean release() {
+        synchronized (this) {
+            if (refCnt <= 0) {
+                throw new IllegalStateException("Packet is released already!");
+            }
+
+            if (--refCnt > 0) {
+                return false;
+            }
+        }
+
+        if (pooledBuffers != null) {
+            for (PooledBuffer pooledBuffer : pooledBuffers) {
+                pooledBuffer.release();
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -16,21 +16,65 @@
  */
 package io.yarn.remote.protocol;
 
+import io.yarn.remote.BufferPool;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 
 /**
- *
+ * Parse packets from a blocking stream, with a {@link ProtocolDecoder}.
  *
  */
 public class ProtocolParser {
 
+    private final ProtocolDecoder decoder;
+
+    private final byte[] readBuffer;
+
+    private final Queue<ProtocolPacket> decodedPackets = new ArrayDeque<ProtocolPacket>();
+
+    public ProtocolParser(ProtocalOption option, BufferPool bufferPool) {
+        this.decoder = new ProtocolDecoder(option, bufferPool);
+        this.readBuffer = new byte[Math.max(bufferPool.getBufferAllocateSize(), 1)];
+    }
+
+    /**
+     * Read until a whole packet is decoded, the packets decoded along with it
+     * are kept for the next calls.
+     *
+     * @param in the stream
+     * @return the packet, to be released, or null at the end of the stream
+     * @throws IOException if the stream could not be read or is malformed
+     */
+    public ProtocolPacket parse(InputStream in) throws IOException {
+        List<ProtocolPacket> packets = new ArrayList<ProtocolPacket>(4);
+        while (decodedPackets.isEmpty()) {
+            int read = in.read(readBuffer);
+            if (read < 0) {
+                return null;
+            }
+
+            decoder.decode(ByteBuffer.wrap(readBuffer, 0, read), packets);
+            decodedPackets.addAll(packets);
+            packets.clear();
+        }
+
+        return decodedPackets.poll();
+    }
+
     /**
-     * 
-     * @param in
-     * @return 
+     * Release the packets not parsed yet and the buffers of the decoder.
      */
-    public ProtocolPacket parse(InputStream in) {
-        return null;
+    public void close() {
+        ProtocolPacket packet;
+        while ((packet = decodedPackets.poll()) != null) {
+            packet.release();
+        }
+        decoder.close();
     }
 
 }
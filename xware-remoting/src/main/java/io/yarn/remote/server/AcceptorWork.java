@@ -16,20 +16,138 @@
  */
 package io.yarn.remote.server;
 
+import io.yarn.common.i18n.LocalStringsManager;
 import io.yarn.work.WorkBase;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * Accepts connections and hands them round robin to the selector event
+ * loops.
  *
- * @author NortromYang
+ * The work runs until stopped, blocking its thread in accept.
  */
 public class AcceptorWork extends WorkBase {
 
-    public AcceptorWork() {
+    private static final Logger _logger = Logger.getLogger(AcceptorWork.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(AcceptorWork.class);
+
+    /**
+     * Milliseconds waited after a failed accept, doubled on each failure in
+     * a row up to MAX_ACCEPT_BACKOFF.
+     */
+    private static final long MIN_ACCEPT_BACKOFF = 10;
+
+    private static final long MAX_ACCEPT_BACKOFF = 1000;
+
+    /**
+     * Milliseconds between two warnings of failures in a row.
+     */
+    private static final long ACCEPT_FAILURE_LOG_INTERVAL = 10 * 1000;
+
+    private final ServerConfig serverConfig;
+
+    private final SelectorWork[] selectorWorks;
+
+    private ServerSocketChannel serverChannel;
+
+    private int nextSelector = 0;
+
+    public AcceptorWork(ServerConfig serverConfig, SelectorWork[] selectorWorks) {
+        if (selectorWorks.length == 0) {
+            throw new IllegalArgumentException("At least one selector work is required!");
+        }
+
+        this.serverConfig = serverConfig;
+        this.selectorWorks = selectorWorks;
+    }
+
+    /**
+     * Bind the server channel, before the work is scheduled.
+     *
+     * @throws IOException if the address could not be bound
+     */
+    public void bind() throws IOException {
+        InetSocketAddress address = serverConfig.getHost() != null
+                ? new InetSocketAddress(serverConfig.getHost(), serverConfig.getPort())
+                : new InetSocketAddress(serverConfig.getPort());
+
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address, serverConfig.getBackLog());
+        } catch (IOException ioEx) {
+            serverChannel.close();
+            throw ioEx;
+        }
+    }
+
+    public SocketAddress getLocalAddress() throws IOException {
+        return serverChannel != null ? serverChannel.getLocalAddress() : null;
     }
 
     @Override
     public void doWork() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        if (serverChannel == null) {
+            throw new IllegalStateException("Acceptor work is not bound!");
+        }
+
+        long backoff = 0;
+        int failures = 0;
+        long lastLogTime = 0;
+        while (serverChannel.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException ccEx) {
+                //stopped
+                return;
+            } catch (IOException ioEx) {
+                //such as too many open files, back off and keep accepting
+                failures++;
+                long now = getTimeSource().currentTimeMillis();
+                if (failures == 1 || now - lastLogTime >= ACCEPT_FAILURE_LOG_INTERVAL) {
+                    _logger.log(Level.WARNING, strings.get("acceptor.accept.failed", getName(), failures), ioEx);
+                    lastLogTime = now;
+                }
+
+                backoff = backoff == 0 ? MIN_ACCEPT_BACKOFF : Math.min(MAX_ACCEPT_BACKOFF, backoff * 2);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException inEx) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+
+            backoff = 0;
+            failures = 0;
+
+            selectorWorks[nextSelector].register(channel);
+            nextSelector = (nextSelector + 1) % selectorWorks.length;
+        }
     }
-    
+
+    /**
+     * Stop accepting by closing the server channel.
+     */
+    public void stop() {
+        if (serverChannel == null) {
+            return;
+        }
+
+        try {
+            serverChannel.close();
+        } catch (IOException ioEx) {
+            _logger.log(Level.WARNING, strings.get("acceptor.close.failed", getName()), ioEx);
+        }
+    }
+
 }
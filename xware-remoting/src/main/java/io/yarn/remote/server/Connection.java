@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client connection served by a {@link SelectorWork} event loop.
+ *
+ * Reads, writes and close all happen on the event loop, writes from other
+ * threads are queued and flushed by the event loop. A connection reads while
+ * autoRead is set and its event loop is not stopped by memory pressure.
+ */
+public class Connection {
+
+    private final SelectorWork eventLoop;
+
+    private final SocketChannel channel;
+
+    private final SelectionKey selectionKey;
+
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    private final Runnable closeTask = new Runnable() {
+        @Override
+        public void run() {
+            doClose();
+        }
+    };
+
+    private final Runnable updateReadTask = new Runnable() {
+        @Override
+        public void run() {
+            updateReadInterest();
+        }
+    };
+
+    private volatile boolean closed = false;
+
+    private volatile boolean autoRead = true;
+
+    private volatile Object attachment;
+
+    /*package*/ Connection(SelectorWork eventLoop, SocketChannel channel, SelectionKey selectionKey) {
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.selectionKey = selectionKey;
+    }
+
+    public SelectorWork getEventLoop() {
+        return eventLoop;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException ioEx) {
+            return null;
+        }
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    /**
+     * Attach per connection state, such as a decoder.
+     *
+     * @param attachment the state
+     */
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    public boolean isAutoRead() {
+        return autoRead;
+    }
+
+    /**
+     * Stop or resume reading, to hold back a peer sending faster than its
+     * data is handled.
+     *
+     * @param autoRead false to stop reading
+     */
+    public void setAutoRead(boolean autoRead) {
+        this.autoRead = autoRead;
+        if (eventLoop.inEventLoop()) {
+            updateReadInterest();
+        } else {
+            eventLoop.execute(updateReadTask);
+        }
+    }
+
+    /**
+     * Queue the data to be written, the buffer must not be changed until
+     * written.
+     *
+     * @param data the data
+     * @return false if the connection is closed
+     */
+    public boolean write(ByteBuffer data) {
+        if (closed) {
+            return false;
+        }
+
+        writeQueue.offer(data);
+        if (eventLoop.inEventLoop()) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(flushTask);
+        }
+
+        return true;
+    }
+
+    public void close() {
+        if (eventLoop.inEventLoop()) {
+            doClose();
+        } else {
+            eventLoop.execute(closeTask);
+        }
+    }
+
+    /**
+     * Read once into the buffer of the event loop and pass the data to the
+     * handler. Called on the event loop.
+     *
+     * @return false if the peer closed the connection
+     */
+    /*package*/ boolean read(ByteBuffer readBuffer, ConnectionHandler connectionHandler) throws IOException {
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            return false;
+        }
+
+        if (read > 0) {
+            readBuffer.flip();
+            connectionHandler.received(this, readBuffer);
+        }
+
+        return true;
+    }
+
+    /**
+     * Write the queued data until the socket buffer is full, then wait for
+     * the socket to be writable. Called on the event loop.
+     */
+    /*package*/ void flush() {
+        if (closed) {
+            return;
+        }
+
+        try {
+            ByteBuffer data;
+            while ((data = writeQueue.peek()) != null) {
+                channel.write(data);
+                if (data.hasRemaining()) {
+                    setInterest(SelectionKey.OP_WRITE, true);
+                    return;
+                }
+
+                writeQueue.poll();
+            }
+
+            setInterest(SelectionKey.OP_WRITE, false);
+        } catch (IOException ioEx) {
+            eventLoop.connectionFailed(this, ioEx);
+        }
+    }
+
+    /**
+     * Called on the event loop.
+     */
+    /*package*/ void updateReadInterest() {
+        setInterest(SelectionKey.OP_READ, autoRead && !eventLoop.isReadPaused());
+    }
+
+    /**
+     * Called on the event loop.
+     */
+    /*package*/ void setInterest(int operation, boolean interested) {
+        if (!selectionKey.isValid()) {
+            return;
+        }
+
+        int interestOps = selectionKey.interestOps();
+        int newInterestOps = interested ? interestOps | operation : interestOps & ~operation;
+        if (newInterestOps != interestOps) {
+            selectionKey.interestOps(newInterestOps);
+        }
+    }
+
+    /**
+     * Called on the event loop.
+     */
+    /*package*/ void doClose() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        selectionKey.cancel();
+        try {
+            channel.close();
+        } catch (IOException ioEx) {
+            //closing anyway
+        }
+        writeQueue.clear();
+        eventLoop.connectionClosed(this);
+    }
+
+}
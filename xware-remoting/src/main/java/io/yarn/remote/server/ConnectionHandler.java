@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.remote.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Handles the events of the connections of a server, called on the selector
+ * event loop of the connection. Handlers must not block.
+ *
+ */
+public interface ConnectionHandler {
+
+    public void connected(Connection connection);
+
+    /**
+     * Data read from the connection.
+     *
+     * @param connection the connection
+     * @param data the data read, only valid during the call
+     * @throws IOException to close the connection
+     */
+    public void received(Connection connection, ByteBuffer data) throws IOException;
+
+    public void closed(Connection connection);
+
+}
@@ -16,94 +16,388 @@
  */
 package io.yarn.remote.server;
 
+import io.yarn.common.i18n.LocalStringsManager;
+import io.yarn.common.nio.DirectBufferCleaner;
+import io.yarn.remote.MemoryBudget;
+import io.yarn.remote.MemoryPressureListener;
 import io.yarn.work.WorkBase;
-import io.yarn.work.WorkScheduler;
 import java.io.IOException;
-import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * A selector event loop serving the connections handed to it by the
+ * {@link AcceptorWork}.
  *
+ * The work runs until stopped, holding the thread of its scheduler. Each
+ * pass selects the ready keys, reads into the buffer of the loop, flushes
+ * pending writes, then runs the tasks queued by other threads.
  *
+ * A direct read buffer is reserved from the memory budget. While the budget
+ * is under pressure the loop stops reading, clearing OP_READ of all its
+ * connections until the pressure is relieved.
  */
 public class SelectorWork extends WorkBase {
 
+    private static final Logger _logger = Logger.getLogger(SelectorWork.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(SelectorWork.class);
+
+    /**
+     * Reads per readable key before moving to the next key.
+     */
+    private static final int MAX_READS_PER_KEY = 16;
+
     private final ServerConfig serverConfig;
 
-    private Selector selector;
+    private final ConnectionHandler connectionHandler;
+
+    private final Selector selector;
+
+    private final MemoryBudget memoryBudget;
+
+    private ByteBuffer readBuffer;
+
+    private volatile boolean readPaused = false;
+
+    private final MemoryPressureListener pressureListener = new MemoryPressureListener() {
+        @Override
+        public void memoryPressureChanged(MemoryBudget memoryBudget, boolean underPressure) {
+            execute(updateReadingTask);
+        }
+    };
+
+    private final Runnable updateReadingTask = new Runnable() {
+        @Override
+        public void run() {
+            updateReading();
+        }
+    };
+
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private final AtomicBoolean wakenUp = new AtomicBoolean(false);
 
-    private ServerSocketChannel serverChannel;
+    private final AtomicInteger connections = new AtomicInteger();
 
-    private WorkScheduler workScheduler;
+    private volatile boolean running = true;
 
-    public SelectorWork(ServerConfig serverConfig) {
+    /**
+     * Set by the loop when it starts, or by close when it never will.
+     */
+    private final AtomicBoolean loopEntered = new AtomicBoolean(false);
+
+    private volatile Thread eventLoopThread;
+
+    public SelectorWork(ServerConfig serverConfig, ConnectionHandler connectionHandler) throws IOException {
+        this(serverConfig, connectionHandler, MemoryBudget.getDefault());
+    }
+
+    /**
+     * @param serverConfig the config
+     * @param connectionHandler the handler
+     * @param memoryBudget the budget of direct memory, none if null
+     * @throws IOException if the selector could not be opened
+     */
+    public SelectorWork(ServerConfig serverConfig, ConnectionHandler connectionHandler, MemoryBudget memoryBudget) throws IOException {
         this.serverConfig = serverConfig;
+        this.connectionHandler = connectionHandler;
+        this.memoryBudget = memoryBudget;
+        this.selector = Selector.open();
     }
 
-    @Override
-    public void doWork() {
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return true if reading is stopped by memory pressure
+     */
+    public boolean isReadPaused() {
+        return readPaused;
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == eventLoopThread;
+    }
+
+    /**
+     * Run the task on the event loop.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        pendingTasks.offer(task);
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Register an accepted channel with this event loop.
+     *
+     * @param channel the accepted channel
+     */
+    public void register(final SocketChannel channel) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                doRegister(channel);
+            }
+        });
+    }
+
+    private void doRegister(SocketChannel channel) {
+        Connection connection;
         try {
-            openSelector();
-            listen();
-            select();
+            channel.configureBlocking(false);
+            configureSocket(channel);
+            SelectionKey selectionKey = channel.register(selector, readPaused ? 0 : SelectionKey.OP_READ);
+            connection = new Connection(this, channel, selectionKey);
+            selectionKey.attach(connection);
         } catch (IOException ioEx) {
+            _logger.log(Level.WARNING, strings.get("selector.register.failed", channel), ioEx);
+            try {
+                channel.close();
+            } catch (IOException closeEx) {
+                //closing anyway
+            }
+            return;
         }
 
-        stop();
+        connections.incrementAndGet();
+        connectionHandler.connected(connection);
     }
 
-    private void openSelector() throws IOException {
-        selector = Selector.open();
+    private void configureSocket(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, serverConfig.isTcpNoDelay());
+        if (serverConfig.getSoLinger() > 0) {
+            channel.setOption(StandardSocketOptions.SO_LINGER, serverConfig.getSoLinger());
+        }
+        if (serverConfig.getSoReceiveBuffer() > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, serverConfig.getSoReceiveBuffer());
+        }
+        if (serverConfig.getSoSendBuffer() > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, serverConfig.getSoSendBuffer());
+        }
     }
 
-    private void listen() throws IOException {
+    @Override
+    public void doWork() {
+        if (!loopEntered.compareAndSet(false, true)) {
+            //closed before it ran
+            return;
+        }
 
-        serverChannel = ServerSocketChannel.open();
+        eventLoopThread = Thread.currentThread();
+        try {
+            allocateReadBuffer();
+            while (running) {
+                try {
+                    wakenUp.set(false);
+                    if (pendingTasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+
+                    processSelectedKeys();
+                } catch (IOException ioEx) {
+                    _logger.log(Level.WARNING, strings.get("selector.select.failed", getName()), ioEx);
+                }
 
-        InetSocketAddress inetSocketAddress = new InetSocketAddress(serverConfig.getPort());
-        serverChannel.bind(inetSocketAddress);
-        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+                runPendingTasks();
+            }
+        } finally {
+            closeAll();
+            eventLoopThread = null;
+        }
     }
 
-    private void select() throws IOException {
-        int select = selector.select();
-        if (select > 0) {
-            Set<SelectionKey> selectedKeys = selector.selectedKeys();
-            Iterator<SelectionKey> iterator = selectedKeys.iterator();
-            while (iterator.hasNext()) {
-                SelectionKey selectionKey = iterator.next();
-                if (!selectionKey.isValid()) {
-                    selectionKey.cancel();
-                    iterator.remove();
+    private void processSelectedKeys() {
+        Set<SelectionKey> selectedKeys = selector.selectedKeys();
+        if (selectedKeys.isEmpty()) {
+            return;
+        }
+
+        Iterator<SelectionKey> iterator = selectedKeys.iterator();
+        while (iterator.hasNext()) {
+            SelectionKey selectionKey = iterator.next();
+            iterator.remove();
+
+            Connection connection = (Connection) selectionKey.attachment();
+            if (!selectionKey.isValid()) {
+                connection.doClose();
+                continue;
+            }
+
+            try {
+                int readyOps = selectionKey.readyOps();
+                if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                    connection.flush();
                 }
 
-                if (selectionKey.isAcceptable()) {
-                    handleAccept(selectionKey);
-                } else if (selectionKey.isReadable()) {
-                    handleRead(selectionKey);
+                if ((readyOps & SelectionKey.OP_READ) != 0) {
+                    readConnection(connection);
                 }
+            } catch (CancelledKeyException ckEx) {
+                connection.doClose();
             }
         }
     }
 
-    private void handleAccept(SelectionKey selectionKey) throws IOException {
-        ServerSocketChannel readyServerChannel = (ServerSocketChannel) selectionKey.channel();
-        SocketChannel socketChannel = readyServerChannel.accept();
-        socketChannel.register(selector, SelectionKey.OP_READ);
+    private void readConnection(Connection connection) {
+        try {
+            for (int i = 0; i < MAX_READS_PER_KEY && connection.isOpen(); i++) {
+                if (!connection.read(readBuffer, connectionHandler)) {
+                    connection.doClose();
+                    return;
+                }
+
+                //the socket had less than a buffer to read
+                if (readBuffer.limit() < readBuffer.capacity()) {
+                    return;
+                }
+            }
+        } catch (IOException ioEx) {
+            connectionFailed(connection, ioEx);
+        } catch (RuntimeException rtEx) {
+            _logger.log(Level.WARNING, strings.get("selector.handler.failed", connection.getRemoteAddress()), rtEx);
+            connection.doClose();
+        }
     }
 
-    private void handleRead(SelectionKey selectionKey) throws IOException {
-        SocketChannel readyChannel = (SocketChannel) selectionKey.channel();
-        ByteBuffer[] bsts = null;
-        readyChannel.read(bsts);
+    private void allocateReadBuffer() {
+        int readBufferSize = serverConfig.getReadBufferSize();
+        if (!serverConfig.isUseDirectBuffer()) {
+            readBuffer = ByteBuffer.allocate(readBufferSize);
+            return;
+        }
+
+        if (memoryBudget == null) {
+            readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+            return;
+        }
+
+        memoryBudget.reserve(readBufferSize);
+        try {
+            readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+        } catch (OutOfMemoryError oomError) {
+            memoryBudget.release(readBufferSize);
+            throw oomError;
+        }
+        memoryBudget.addMemoryPressureListener(pressureListener);
+        readPaused = memoryBudget.isUnderPressure();
+    }
+
+    private void freeReadBuffer() {
+        if (readBuffer == null || !readBuffer.isDirect()) {
+            return;
+        }
+
+        DirectBufferCleaner.clean(readBuffer);
+        if (memoryBudget != null) {
+            memoryBudget.removeMemoryPressureListener(pressureListener);
+            memoryBudget.release(readBuffer.capacity());
+        }
+        readBuffer = null;
     }
 
-    private void stop() {
+    /**
+     * Stop or resume reading as the memory budget is under pressure or not.
+     */
+    private void updateReading() {
+        boolean paused = memoryBudget != null && memoryBudget.isUnderPressure();
+        if (paused == readPaused) {
+            return;
+        }
+
+        readPaused = paused;
+        for (SelectionKey selectionKey : selector.keys()) {
+            Object attachment = selectionKey.attachment();
+            if (attachment instanceof Connection) {
+                ((Connection) attachment).updateReadInterest();
+            }
+        }
     }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException rtEx) {
+                _logger.log(Level.WARNING, strings.get("selector.task.failed", getName()), rtEx);
+            }
+        }
+    }
+
+    /*package*/ void connectionFailed(Connection connection, IOException ioEx) {
+        if (_logger.isLoggable(Level.FINE)) {
+            _logger.log(Level.FINE, strings.get("selector.connection.failed", connection.getRemoteAddress()), ioEx);
+        }
+        connection.doClose();
+    }
+
+    /*package*/ void connectionClosed(Connection connection) {
+        connections.decrementAndGet();
+        try {
+            connectionHandler.closed(connection);
+        } catch (RuntimeException rtEx) {
+            _logger.log(Level.WARNING, strings.get("selector.handler.failed", connection.getRemoteAddress()), rtEx);
+        }
+    }
+
+    private void closeAll() {
+        runPendingTasks();
+        for (SelectionKey selectionKey : selector.keys()) {
+            Object attachment = selectionKey.attachment();
+            if (attachment instanceof Connection) {
+                ((Connection) attachment).doClose();
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException ioEx) {
+            //closing anyway
+        }
+        freeReadBuffer();
+    }
+
+    /**
+     * Stop the event loop, closing its connections.
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Stop the event loop. A loop that never ran closes its selector here,
+     * a running loop closes it on its way out.
+     */
+    public void close() {
+        stop();
+        if (loopEntered.compareAndSet(false, true)) {
+            closeAll();
+        }
+    }
+
 }
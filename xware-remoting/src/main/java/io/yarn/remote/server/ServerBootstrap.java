@@ -16,10 +16,142 @@
  */
 package io.yarn.remote.server;
 
+import io.yarn.remote.MemoryBudget;
+import io.yarn.work.ThreadPoolWorkScheduler;
+import java.io.IOException;
+import java.net.SocketAddress;
+
 /**
+ * Starts a multi reactor server: one {@link AcceptorWork} handing accepted
+ * connections to selectorThreads {@link SelectorWork} event loops, each a
+ * long running work of the work scheduler.
  *
- * 
+ * Without a work scheduler set, one with a thread per work is created and
+ * cancelled on stop. The direct read buffers of the event loops are drawn
+ * from the memory budget, the process wide one unless set.
  */
 public class ServerBootstrap {
-    
+
+    private final ServerConfig serverConfig;
+
+    private final ConnectionHandler connectionHandler;
+
+    private ThreadPoolWorkScheduler workScheduler;
+
+    private boolean ownWorkScheduler = false;
+
+    private MemoryBudget memoryBudget = MemoryBudget.getDefault();
+
+    private AcceptorWork acceptorWork;
+
+    private SelectorWork[] selectorWorks;
+
+    public ServerBootstrap(ServerConfig serverConfig, ConnectionHandler connectionHandler) {
+        this.serverConfig = serverConfig;
+        this.connectionHandler = connectionHandler;
+    }
+
+    public ServerConfig getServerConfig() {
+        return serverConfig;
+    }
+
+    public ThreadPoolWorkScheduler getWorkScheduler() {
+        return workScheduler;
+    }
+
+    /**
+     * Run the server on the scheduler, which needs a thread for each selector
+     * thread plus the acceptor.
+     *
+     * @param workScheduler the scheduler
+     */
+    public void setWorkScheduler(ThreadPoolWorkScheduler workScheduler) {
+        this.workScheduler = workScheduler;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @param memoryBudget the budget of direct memory, none if null
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public synchronized SelectorWork[] getSelectorWorks() {
+        return selectorWorks != null ? selectorWorks.clone() : new SelectorWork[0];
+    }
+
+    public synchronized SocketAddress getLocalAddress() throws IOException {
+        return acceptorWork != null ? acceptorWork.getLocalAddress() : null;
+    }
+
+    public synchronized void start() throws IOException {
+        if (acceptorWork != null) {
+            throw new IllegalStateException("Server is started already!");
+        }
+
+        int selectorThreads = serverConfig.getSelectorThreads() > 0
+                ? serverConfig.getSelectorThreads()
+                : Runtime.getRuntime().availableProcessors();
+
+        SelectorWork[] works = new SelectorWork[selectorThreads];
+        AcceptorWork acceptor;
+        try {
+            for (int i = 0; i < selectorThreads; i++) {
+                works[i] = new SelectorWork(serverConfig, connectionHandler, memoryBudget);
+                works[i].setName("selector-" + serverConfig.getPort() + "-" + i);
+            }
+
+            acceptor = new AcceptorWork(serverConfig, works);
+            acceptor.setName("acceptor-" + serverConfig.getPort());
+            acceptor.bind();
+        } catch (IOException ioEx) {
+            for (SelectorWork work : works) {
+                if (work != null) {
+                    work.close();
+                }
+            }
+            throw ioEx;
+        }
+
+        if (workScheduler == null) {
+            workScheduler = new ThreadPoolWorkScheduler();
+            workScheduler.setMinThread(selectorThreads + 1);
+            workScheduler.setMaxThread(selectorThreads + 1);
+            workScheduler.scheduleWorks();
+            ownWorkScheduler = true;
+        }
+
+        for (SelectorWork work : works) {
+            workScheduler.addWork(work);
+        }
+        workScheduler.addWork(acceptor);
+
+        selectorWorks = works;
+        acceptorWork = acceptor;
+    }
+
+    public synchronized void stop() {
+        if (acceptorWork == null) {
+            return;
+        }
+
+        acceptorWork.stop();
+        for (SelectorWork work : selectorWorks) {
+            work.stop();
+        }
+
+        if (ownWorkScheduler) {
+            workScheduler.cancel();
+            workScheduler = null;
+            ownWorkScheduler = false;
+        }
+
+        acceptorWork = null;
+        selectorWorks = null;
+    }
+
 }
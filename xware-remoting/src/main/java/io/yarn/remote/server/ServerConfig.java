@@ -40,6 +40,18 @@ public class ServerConfig implements Serializable {
 
     private int soSendBuffer;
 
+    /**
+     * Selector event loops, 0 for one per available processor.
+     */
+    private int selectorThreads;
+
+    /**
+     * The read buffer of each selector event loop.
+     */
+    private int readBufferSize = 64 * 1024;
+
+    private boolean useDirectBuffer = true;
+
     public String getHost() {
         return host;
     }
@@ -104,5 +116,29 @@ public class ServerConfig implements Serializable {
         this.soSendBuffer = soSendBuffer;
     }
 
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    public void setSelectorThreads(int selectorThreads) {
+        this.selectorThreads = selectorThreads;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+    }
+
+    public boolean isUseDirectBuffer() {
+        return useDirectBuffer;
+    }
+
+    public void setUseDirectBuffer(boolean useDirectBuffer) {
+        this.useDirectBuffer = useDirectBuffer;
+    }
+
     
 }
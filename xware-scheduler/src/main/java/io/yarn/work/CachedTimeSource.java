@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A coarse time source returning a reading of {@link System#nanoTime()}
+ * cached by a ticker thread, so that hot loops read a volatile field instead
+ * of the clock. Readings lag the clock by up to the tick interval, plus any
+ * delay in scheduling the ticker thread.
+ *
+ * The ticker is a daemon thread started with the time source.
+ */
+public class CachedTimeSource implements TimeSource {
+
+    private final long tickNanos;
+
+    private volatile long cachedNanoTime = System.nanoTime();
+
+    private volatile boolean running = true;
+
+    private final Thread ticker;
+
+    public CachedTimeSource(long tickInterval, TimeUnit unit) {
+        if (tickInterval <= 0) {
+            throw new IllegalArgumentException("tickInterval must be positive: " + tickInterval);
+        }
+
+        this.tickNanos = unit.toNanos(tickInterval);
+        this.ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    LockSupport.parkNanos(tickNanos);
+                    cachedNanoTime = System.nanoTime();
+                }
+            }
+        }, "time-source-ticker");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    public long getTickInterval(TimeUnit unit) {
+        return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(cachedNanoTime);
+    }
+
+    @Override
+    public long nanoTime() {
+        return cachedNanoTime;
+    }
+
+    /**
+     * Stop the ticker, readings no longer advance afterwards.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+}
@@ -0,0 +1,430 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A scheduler running a graph of works in dependency order.
+ *
+ * Edges are declared by {@link #addDependency(Work, Work)}, before or after
+ * the works are added. A work is held until it is added and all its
+ * predecessors have finished, counted down by an atomic in-degree, and is
+ * passed to the delegating scheduler by the thread finishing its last
+ * predecessor. No work polls for readiness.
+ *
+ * A predecessor failing with an exception or being cancelled cancels all its
+ * dependents transitively, {@link #getFailure(Work)} tells the exception that
+ * caused it for the last maxFailures failed works.
+ *
+ * A work leaves the graph once it has finished and its dependents have been
+ * released. A dependency on a work that left the graph, or that finished
+ * outside of it, is satisfied or failed at once by the outcome of the work.
+ */
+public class DagWorkScheduler extends DelegatingWorkSecheduler implements WorkListener {
+
+    private final ConcurrentMap<Work, WorkNode> workNodes = new ConcurrentHashMap<Work, WorkNode>();
+
+    private final Object graphLock = new Object();
+
+    private int maxFailures = 1024;
+
+    /**
+     * The failures of the last failed works, guarded by itself.
+     */
+    private final Map<Work, Throwable> failures = new LinkedHashMap<Work, Throwable>() {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Work, Throwable> eldest) {
+            return size() > maxFailures;
+        }
+    };
+
+    /**
+     * Works added but waiting for predecessors.
+     */
+    private final AtomicInteger waitingWorks = new AtomicInteger();
+
+    public DagWorkScheduler(WorkScheduler delegating) {
+        super(delegating);
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    public void setMaxFailures(int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    /**
+     * Declare that the dependent may run only after the predecessor finished.
+     *
+     * @param predecessor the work to finish first
+     * @param dependent the work depending on it
+     * @throws IllegalArgumentException if the edge would form a cycle
+     * @throws IllegalStateException if the dependent has already been
+     * scheduled
+     */
+    public void addDependency(Work predecessor, Work dependent) {
+        if (predecessor == dependent) {
+            throw new IllegalArgumentException("Work " + predecessor.getName() + " can not depend on itself!");
+        }
+
+        if (!workNodes.containsKey(dependent) && isDone(dependent)) {
+            throw new IllegalStateException("Work " + dependent.getName() + " has been scheduled already!");
+        }
+
+        WorkNode predecessorNode = workNodes.get(predecessor);
+        if (predecessorNode == null && isDone(predecessor)) {
+            //finished and left the graph
+            if (predecessor.isFinished() && !predecessor.isCancelled() && !predecessor.hasException()) {
+                return;
+            }
+
+            Throwable failure = getFailure(predecessor);
+            failDependent(getWorkNode(dependent), failure != null ? failure : predecessor.getException());
+            return;
+        }
+
+        predecessorNode = getWorkNode(predecessor);
+        if (!predecessorNode.added.get() && isDone(predecessor)) {
+            //done outside the graph before its listener was attached
+            workFinished(predecessor, null);
+        }
+        WorkNode dependentNode = getWorkNode(dependent);
+
+        Throwable failure;
+        synchronized (graphLock) {
+            if (reachable(dependentNode, predecessorNode)) {
+                throw new IllegalArgumentException("Dependency of work " + dependent.getName() + " on work "
+                        + predecessor.getName() + " would form a cycle!");
+            }
+
+            synchronized (predecessorNode) {
+                if (predecessorNode.state == WorkNode.SUCCEEDED) {
+                    return;
+                }
+
+                if (predecessorNode.state == WorkNode.PENDING) {
+                    dependentNode.increasePending();
+                    predecessorNode.dependents.add(dependentNode);
+                    return;
+                }
+
+                failure = predecessorNode.failure;
+            }
+        }
+
+        failDependent(dependentNode, failure);
+    }
+
+    /**
+     * Fail the dependent of a failed predecessor, unless it has been
+     * dispatched already.
+     */
+    private void failDependent(WorkNode dependentNode, Throwable failure) {
+        //throws if dispatched, and keeps it from being dispatched meanwhile
+        dependentNode.increasePending();
+        failWorks(dependentNode, failure);
+    }
+
+    /**
+     * Called with the graph lock held.
+     */
+    private boolean reachable(WorkNode from, WorkNode to) {
+        LinkedList<WorkNode> visiting = new LinkedList<WorkNode>();
+        Set<WorkNode> visited = new HashSet<WorkNode>();
+        visiting.add(from);
+        while (!visiting.isEmpty()) {
+            WorkNode node = visiting.poll();
+            if (node == to) {
+                return true;
+            }
+
+            if (visited.add(node)) {
+                synchronized (node) {
+                    visiting.addAll(node.dependents);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Add the work to the graph, it is scheduled once its predecessors have
+     * finished.
+     *
+     * @param work the work
+     * @return false if the work was added already or is not allowed
+     */
+    @Override
+    public boolean addWork(Work work) {
+        if (!allowAddingWork(work) || (!workNodes.containsKey(work) && isDone(work))) {
+            return false;
+        }
+
+        WorkNode node = getWorkNode(work);
+        if (!node.added.compareAndSet(false, true)) {
+            return false;
+        }
+
+        if (node.pending.decrementAndGet() == 0) {
+            dispatch(node);
+        } else {
+            waitingWorks.incrementAndGet();
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean hasWork() {
+        return super.hasWork() || waitingWorks.get() > 0;
+    }
+
+    public int getWaitingWorkSize() {
+        return waitingWorks.get();
+    }
+
+    /**
+     * The exception of the failed predecessor that cancelled the work, or of
+     * the work itself.
+     *
+     * @param work the work
+     * @return the exception, null if none or cancelled without exception
+     */
+    public Throwable getFailure(Work work) {
+        WorkNode node = workNodes.get(work);
+        if (node != null) {
+            return node.failure;
+        }
+
+        synchronized (failures) {
+            return failures.get(work);
+        }
+    }
+
+    /**
+     * @return the works in the graph, added or not
+     */
+    public int getWorkNodeSize() {
+        return workNodes.size();
+    }
+
+    private static boolean isDone(Work work) {
+        return work.isFinished() || work.isCancelled();
+    }
+
+    /**
+     * Take a completed node out of the graph, its dependents released.
+     */
+    private void removeWorkNode(WorkNode node) {
+        Throwable failure = node.failure;
+        if (failure != null) {
+            synchronized (failures) {
+                failures.put(node.work, failure);
+            }
+        }
+
+        workNodes.remove(node.work, node);
+        node.work.removeWorkListener(this);
+    }
+
+    private WorkNode getWorkNode(Work work) {
+        WorkNode node = workNodes.get(work);
+        if (node == null) {
+            WorkNode created = new WorkNode(work);
+            node = workNodes.putIfAbsent(work, created);
+            if (node == null) {
+                node = created;
+                work.addWorkListener(this);
+            }
+        }
+
+        return node;
+    }
+
+    private void dispatch(WorkNode node) {
+        if (node.work.isCancelled()) {
+            //cancelled before its predecessors finished, no event will come
+            if (node.complete(WorkNode.FAILED, null) != null) {
+                removeWorkNode(node);
+            }
+            return;
+        }
+
+        if (!super.addWork(node.work)) {
+            failWorks(node, new WorkRejectException("Work " + node.work.getName() + " was rejected by the scheduler!"));
+        }
+    }
+
+    private void predecessorSucceeded(WorkNode node) {
+        if (node.pending.decrementAndGet() == 0) {
+            waitingWorks.decrementAndGet();
+            dispatch(node);
+        }
+    }
+
+    /**
+     * Fail the node and cancel its dependents transitively, iteratively so
+     * that long chains do not overflow the stack.
+     */
+    private void failWorks(WorkNode node, Throwable failure) {
+        LinkedList<WorkNode> failing = new LinkedList<WorkNode>();
+        failing.add(node);
+        while (!failing.isEmpty()) {
+            WorkNode failed = failing.poll();
+            boolean waiting = failed.added.get() && failed.pending.get() > 0;
+            List<WorkNode> dependents = failed.complete(WorkNode.FAILED, failure);
+            if (dependents == null) {
+                continue;
+            }
+
+            if (waiting) {
+                waitingWorks.decrementAndGet();
+            }
+
+            //completed already, the cancel event is ignored
+            failed.work.cancel();
+            failing.addAll(dependents);
+            removeWorkNode(failed);
+        }
+    }
+
+    @Override
+    public void workStarted(Work work) {
+    }
+
+    @Override
+    public void workAborted(Work work, Throwable t) {
+    }
+
+    @Override
+    public void workCancelled(Work work, Throwable t) {
+        WorkNode node = workNodes.get(work);
+        if (node != null) {
+            failWorks(node, t);
+        }
+    }
+
+    @Override
+    public void workFinished(Work work, Throwable t) {
+        WorkNode node = workNodes.get(work);
+        if (node == null) {
+            return;
+        }
+
+        if (t == null && work.hasException()) {
+            t = work.getException();
+        }
+
+        if (t != null || work.isCancelled()) {
+            failWorks(node, t);
+            return;
+        }
+
+        List<WorkNode> dependents = node.complete(WorkNode.SUCCEEDED, null);
+        if (dependents == null) {
+            return;
+        }
+
+        for (WorkNode dependent : dependents) {
+            predecessorSucceeded(dependent);
+        }
+        removeWorkNode(node);
+    }
+
+    private static class WorkNode {
+
+        private static final int PENDING = 0;
+
+        private static final int SUCCEEDED = 1;
+
+        private static final int FAILED = 2;
+
+        private final Work work;
+
+        /**
+         * Predecessors not finished, plus one until the work is added.
+         */
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        private final AtomicBoolean added = new AtomicBoolean(false);
+
+        /**
+         * Guarded by the node.
+         */
+        private List<WorkNode> dependents = new ArrayList<WorkNode>(2);
+
+        /**
+         * Guarded by the node.
+         */
+        private int state = PENDING;
+
+        private volatile Throwable failure;
+
+        private WorkNode(Work work) {
+            this.work = work;
+        }
+
+        private void increasePending() {
+            for (;;) {
+                int current = pending.get();
+                if (current == 0) {
+                    throw new IllegalStateException("Work " + work.getName() + " has been scheduled already!");
+                }
+
+                if (pending.compareAndSet(current, current + 1)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the dependents to notify, null if completed already
+         */
+        private synchronized List<WorkNode> complete(int state, Throwable failure) {
+            if (this.state != PENDING) {
+                return null;
+            }
+
+            this.state = state;
+            if (failure != null && this.failure == null) {
+                this.failure = failure;
+            }
+
+            List<WorkNode> notified = dependents;
+            dependents = new ArrayList<WorkNode>(0);
+            return notified;
+        }
+    }
+
+}
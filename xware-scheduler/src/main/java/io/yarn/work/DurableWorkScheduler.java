@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A scheduler journaling the serializable works it adds to the delegating
+ * scheduler, so that the unfinished works are scheduled again after a
+ * restart by {@link #recover()}.
+ *
+ * Works are executed at least once: a work finished just before a crash may
+ * be replayed. Works that are not serializable are added without journaling.
+ *
+ * By default addWork forces the journal at most once per flush window, so a
+ * submission survives a JVM crash at once but an OS crash only after the next
+ * force. Add a {@link WorkJournalFlusher} to a {@link TimerWorkScheduler} to
+ * force the tail when submissions stop, or set syncOnSubmit to force before
+ * every addWork returns.
+ *
+ * A work finished with an exception is journaled as failed, not completed,
+ * and is not replayed.
+ */
+public class DurableWorkScheduler extends DelegatingWorkSecheduler implements WorkListener {
+
+    private static final Logger _logger = Logger.getLogger(DurableWorkScheduler.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(DurableWorkScheduler.class);
+
+    private final WorkJournal workJournal;
+
+    private final ConcurrentMap<Work, Long> workIds = new ConcurrentHashMap<Work, Long>();
+
+    private static final int MAX_FAILURE_LENGTH = 1024;
+
+    /**
+     * Whether addWork waits for the journal to be forced to disk.
+     */
+    private boolean syncOnSubmit = false;
+
+    /**
+     * Milliseconds addWork lets pass between two forces of the journal.
+     */
+    private long flushWindow = 100;
+
+    public DurableWorkScheduler(WorkScheduler delegating, WorkJournal workJournal) {
+        super(delegating);
+        this.workJournal = workJournal;
+    }
+
+    public WorkJournal getWorkJournal() {
+        return workJournal;
+    }
+
+    public boolean isSyncOnSubmit() {
+        return syncOnSubmit;
+    }
+
+    public void setSyncOnSubmit(boolean syncOnSubmit) {
+        this.syncOnSubmit = syncOnSubmit;
+    }
+
+    public long getFlushWindow() {
+        return flushWindow;
+    }
+
+    public void setFlushWindow(long flushWindow) {
+        if (flushWindow < 0) {
+            throw new IllegalArgumentException("flushWindow must not be negative: " + flushWindow);
+        }
+
+        this.flushWindow = flushWindow;
+    }
+
+    /**
+     * Open the journal and add the works left unfinished by the last run. Must
+     * be called before adding works.
+     *
+     * @return the number of recovered works
+     * @throws IOException if the journal could not be opened
+     */
+    public int recover() throws IOException {
+        List<WorkJournal.Entry> entries = workJournal.open();
+
+        int recovered = 0;
+        for (WorkJournal.Entry entry : entries) {
+            Work work;
+            try {
+                work = deserialize(entry.getPayload());
+            } catch (IOException | ClassNotFoundException ex) {
+                _logger.log(Level.SEVERE, strings.get("work.journal.restore.failed", entry.getWorkId()), ex);
+                //drop it, or it would be replayed on every restart
+                workJournal.appendCompleted(entry.getWorkId());
+                continue;
+            }
+
+            dispatch(work, entry.getWorkId());
+            recovered++;
+        }
+
+        return recovered;
+    }
+
+    @Override
+    public boolean addWork(Work work) {
+        if (!(work instanceof Serializable)) {
+            return super.addWork(work);
+        }
+
+        if (!allowAddingWork(work)) {
+            return false;
+        }
+
+        long workId = workJournal.nextWorkId();
+        try {
+            long position = workJournal.appendSubmitted(workId, serialize(work));
+            if (syncOnSubmit || System.nanoTime() - workJournal.getLastSyncTime()
+                    >= TimeUnit.MILLISECONDS.toNanos(flushWindow)) {
+                workJournal.sync(position);
+            }
+        } catch (IOException ioEx) {
+            throw new IllegalStateException("Could not journal work " + work.getName(), ioEx);
+        }
+
+        return dispatch(work, workId);
+    }
+
+    private boolean dispatch(Work work, long workId) {
+        workIds.put(work, workId);
+        work.addWorkListener(this);
+        return super.addWork(work);
+    }
+
+    private static byte[] serialize(Work work) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(work);
+        } finally {
+            out.close();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static Work deserialize(byte[] payload) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+        try {
+            return (Work) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void workStarted(Work work) {
+    }
+
+    @Override
+    public void workAborted(Work work, Throwable t) {
+    }
+
+    @Override
+    public void workCancelled(Work work, Throwable t) {
+        //a cancelled work is not replayed
+        workCompleted(work, null);
+    }
+
+    @Override
+    public void workFinished(Work work, Throwable t) {
+        workCompleted(work, t);
+    }
+
+    private void workCompleted(Work work, Throwable failure) {
+        Long workId = workIds.remove(work);
+        if (workId == null) {
+            return;
+        }
+
+        work.removeWorkListener(this);
+        try {
+            if (failure != null) {
+                String text = failure.toString();
+                if (text.length() > MAX_FAILURE_LENGTH) {
+                    text = text.substring(0, MAX_FAILURE_LENGTH);
+                }
+                workJournal.appendFailed(workId, text);
+            } else {
+                workJournal.appendCompleted(workId);
+            }
+        } catch (IOException | IllegalStateException ex) {
+            //such as the journal closed while the work was running
+            _logger.log(Level.WARNING, strings.get("work.journal.complete.failed", work.getName()), ex);
+        }
+    }
+
+}
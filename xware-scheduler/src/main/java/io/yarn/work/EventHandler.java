@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+/**
+ * Process the events published to a {@link RingBufferWorkScheduler}.
+ *
+ * @param <E> the event type
+ */
+public interface EventHandler<E> {
+
+    /**
+     * Process an event. The event slot is reused once the call returns, so the
+     * event must not be kept.
+     *
+     * @param event the event
+     * @param sequence the sequence of the event
+     * @param endOfBatch whether this is the last event currently available
+     * @throws Exception if the event could not be processed
+     */
+    public void onEvent(E event, long sequence, boolean endOfBatch) throws Exception;
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically inspects the threads of the watched schedulers and samples the
+ * stack of every work running longer than {@link #getLongRunningThreshold()}.
+ * Samples are aggregated by work name into a {@link WorkHotSpotReport}.
+ *
+ * The detector is a repeatable {@link TimerWork}, add it to a
+ * {@link TimerWorkScheduler} to run it.
+ */
+public class LongRunningWorkDetector extends TimerWork {
+
+    private static final Logger _logger = Logger.getLogger(LongRunningWorkDetector.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(LongRunningWorkDetector.class);
+
+    private final CopyOnWriteArrayList<ThreadPoolWorkScheduler> workSchedulers = new CopyOnWriteArrayList<ThreadPoolWorkScheduler>();
+
+    private final WorkHotSpotReport report = new WorkHotSpotReport();
+
+    /**
+     * The works already reported as long running, to log each work only once.
+     */
+    private final Map<WorkThread, Work> reportedWorks = new IdentityHashMap<WorkThread, Work>();
+
+    private long longRunningThreshold = 10 * 1000;
+
+    private int maxStackDepth = 64;
+
+    /**
+     * Dumped when a long running work is first reported, null for none.
+     */
+    private WorkFlightRecorder flightRecorder;
+
+    public LongRunningWorkDetector() {
+        super(null);
+        super.setScheduleOnlyOnce(false);
+        super.setScheduleInterval(1000);
+    }
+
+    public long getLongRunningThreshold() {
+        return longRunningThreshold;
+    }
+
+    public void setLongRunningThreshold(long longRunningThreshold) {
+        this.longRunningThreshold = longRunningThreshold;
+    }
+
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    public void setMaxStackDepth(int maxStackDepth) {
+        this.maxStackDepth = maxStackDepth;
+    }
+
+    public WorkFlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    public void setFlightRecorder(WorkFlightRecorder flightRecorder) {
+        this.flightRecorder = flightRecorder;
+    }
+
+    public void addWorkScheduler(ThreadPoolWorkScheduler workScheduler) {
+        workSchedulers.addIfAbsent(workScheduler);
+    }
+
+    public boolean removeWorkScheduler(ThreadPoolWorkScheduler workScheduler) {
+        return workSchedulers.remove(workScheduler);
+    }
+
+    public WorkHotSpotReport getReport() {
+        return report;
+    }
+
+    @Override
+    protected void doTimerWork() {
+        long now = getTimeSource().nanoTime();
+        long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(longRunningThreshold);
+
+        synchronized (reportedWorks) {
+            Set<WorkThread> seenThreads = Collections.newSetFromMap(new IdentityHashMap<WorkThread, Boolean>());
+            for (ThreadPoolWorkScheduler workScheduler : workSchedulers) {
+                for (WorkThread workThread : workScheduler.getWorkThreads()) {
+                    seenThreads.add(workThread);
+                    checkWorkThread(workThread, now, thresholdNanos);
+                }
+            }
+
+            //threads retired, or of a removed scheduler, are not seen idle
+            reportedWorks.keySet().retainAll(seenThreads);
+        }
+    }
+
+    private void checkWorkThread(WorkThread workThread, long now, long thresholdNanos) {
+        Work work = workThread.getCurrentWork();
+        Thread thread = workThread.getThread();
+        if (work == null || thread == null || !thread.isAlive()) {
+            reportedWorks.remove(workThread);
+            return;
+        }
+
+        long elapsed = now - workThread.getCurrentWorkStartTime();
+        if (elapsed < thresholdNanos) {
+            return;
+        }
+
+        StackTraceElement[] stackTrace = thread.getStackTrace();
+        //the thread may have moved on while we were sampling
+        if (workThread.getCurrentWork() != work) {
+            return;
+        }
+
+        if (stackTrace.length > maxStackDepth) {
+            StackTraceElement[] truncated = new StackTraceElement[maxStackDepth];
+            System.arraycopy(stackTrace, 0, truncated, 0, maxStackDepth);
+            stackTrace = truncated;
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        report.addSample(work.getName(), elapsedMillis, stackTrace);
+
+        if (reportedWorks.get(workThread) != work) {
+            reportedWorks.put(workThread, work);
+            if (_logger.isLoggable(Level.WARNING)) {
+                _logger.log(Level.WARNING, strings.get("work.long.running",
+                        work.getName(), thread.getName(), elapsedMillis));
+                dumpFlightRecorder(work, workThread.getCurrentWorkStartTime());
+            }
+        }
+    }
+
+    /**
+     * Log the lifecycle events recorded since the stalled work started.
+     */
+    private void dumpFlightRecorder(Work work, long since) {
+        if (flightRecorder == null) {
+            return;
+        }
+
+        StringBuilder timeline = new StringBuilder();
+        try {
+            flightRecorder.dump(timeline, since);
+        } catch (IOException ioEx) {
+            //not thrown by a string builder
+        }
+
+        _logger.log(Level.WARNING, strings.get("work.flight.recorder.dump", work.getName(), timeline));
+    }
+
+}
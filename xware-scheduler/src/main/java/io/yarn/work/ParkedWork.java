@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A work parked on a {@link WorkLatch}, {@link WorkSemaphore} or
+ * {@link WorkBarrier}, with the scheduler it is added to once resumed.
+ *
+ */
+/*package*/ class ParkedWork {
+
+    private static final Logger _logger = Logger.getLogger(ParkedWork.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(ParkedWork.class);
+
+    private final Work work;
+
+    private final WorkScheduler workScheduler;
+
+    /*package*/ ParkedWork(Work work, WorkScheduler workScheduler) {
+        if (work == null || workScheduler == null) {
+            throw new NullPointerException("work and workScheduler must not be null");
+        }
+
+        this.work = work;
+        this.workScheduler = workScheduler;
+    }
+
+    /*package*/ Work getWork() {
+        return work;
+    }
+
+    /**
+     * Add the work to its scheduler, cancelling it if the scheduler does not
+     * accept it. Must be called without holding the lock of the primitive.
+     *
+     * @return false if the work was rejected and could not be cancelled
+     */
+    /*package*/ boolean resume() {
+        if (!workScheduler.addWork(work)) {
+            _logger.log(Level.WARNING, strings.get("work.resume.rejected", work.getName(), workScheduler.getName()));
+            return work.cancel();
+        }
+
+        return true;
+    }
+
+}
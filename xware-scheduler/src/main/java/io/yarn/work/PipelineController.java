@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves threads between the stages of a {@link WorkPipeline} according to
+ * their measured load.
+ *
+ * The load of a stage is the time its threads need to drain the items queued
+ * or in service: items * service time / threads, the service time measured
+ * over the last period. On each run one thread moves from the least loaded
+ * stage to the most loaded one, if the latter is loaded more than
+ * rebalanceRatio times the former. The total threads stay the same.
+ *
+ * The controller is a repeatable {@link TimerWork}, add it to a
+ * {@link TimerWorkScheduler} to run it.
+ */
+public class PipelineController extends TimerWork {
+
+    private static final Logger _logger = Logger.getLogger(PipelineController.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(PipelineController.class);
+
+    private final WorkPipeline pipeline;
+
+    private int minStageThreads = 1;
+
+    private double rebalanceRatio = 2.0;
+
+    private final Map<PipelineStage, long[]> lastSamples = new IdentityHashMap<PipelineStage, long[]>();
+
+    public PipelineController(WorkPipeline pipeline) {
+        super(null);
+        this.pipeline = pipeline;
+        super.setScheduleOnlyOnce(false);
+        super.setScheduleInterval(1000);
+        super.setName(pipeline.getName() + "-controller");
+    }
+
+    public int getMinStageThreads() {
+        return minStageThreads;
+    }
+
+    public void setMinStageThreads(int minStageThreads) {
+        this.minStageThreads = minStageThreads;
+    }
+
+    public double getRebalanceRatio() {
+        return rebalanceRatio;
+    }
+
+    public void setRebalanceRatio(double rebalanceRatio) {
+        this.rebalanceRatio = rebalanceRatio;
+    }
+
+    @Override
+    protected synchronized void doTimerWork() {
+        List<PipelineStage> stages = pipeline.getStages();
+
+        PipelineStage busiest = null;
+        double busiestLoad = 0;
+        PipelineStage idlest = null;
+        double idlestLoad = Double.MAX_VALUE;
+        for (PipelineStage stage : stages) {
+            double load = measureLoad(stage);
+            if (busiest == null || load > busiestLoad) {
+                busiest = stage;
+                busiestLoad = load;
+            }
+
+            if (stage.getThreads() > minStageThreads && load < idlestLoad) {
+                idlest = stage;
+                idlestLoad = load;
+            }
+        }
+
+        if (busiest == null || idlest == null || busiest == idlest || busiestLoad <= 0) {
+            return;
+        }
+
+        if (busiestLoad > rebalanceRatio * idlestLoad) {
+            idlest.setThreads(idlest.getThreads() - 1);
+            busiest.setThreads(busiest.getThreads() + 1);
+
+            if (_logger.isLoggable(Level.FINE)) {
+                _logger.log(Level.FINE, strings.get("pipeline.thread.moved",
+                        idlest.getName(), busiest.getName(), idlest.getThreads(), busiest.getThreads()));
+            }
+        }
+    }
+
+    private double measureLoad(PipelineStage stage) {
+        long processed = stage.getProcessedItems() + stage.getFailedItems();
+        long serviceNanos = stage.getServiceNanos();
+
+        long[] last = lastSamples.get(stage);
+        if (last == null) {
+            last = new long[2];
+            lastSamples.put(stage, last);
+        }
+
+        long periodProcessed = processed - last[0];
+        long periodNanos = serviceNanos - last[1];
+        last[0] = processed;
+        last[1] = serviceNanos;
+
+        double serviceTime = periodProcessed > 0
+                ? (double) periodNanos / periodProcessed
+                : stage.getAverageServiceNanos();
+
+        int items = stage.getQueueDepth() + stage.getActiveItems();
+        return items * serviceTime / Math.max(1, stage.getThreads());
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A stage of a {@link WorkPipeline}, with its own bounded queue and its own
+ * threads.
+ *
+ * Submitting to a full stage blocks the submitting thread, which is a thread
+ * of the previous stage, so a slow stage holds back the stages before it.
+ */
+public class PipelineStage {
+
+    private static final Logger _logger = Logger.getLogger(PipelineStage.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(PipelineStage.class);
+
+    private final String name;
+
+    private final StageHandler stageHandler;
+
+    private final ThreadPoolWorkScheduler workScheduler;
+
+    private final int queueCapacity;
+
+    private final Semaphore queuePermits;
+
+    private PipelineStage nextStage;
+
+    private volatile boolean stopped = false;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicInteger activeItems = new AtomicInteger();
+
+    private final AtomicLong processedItems = new AtomicLong();
+
+    private final AtomicLong failedItems = new AtomicLong();
+
+    private final AtomicLong serviceNanos = new AtomicLong();
+
+    public PipelineStage(String name, StageHandler stageHandler, int threads, int queueCapacity) {
+        this.name = name;
+        this.stageHandler = stageHandler;
+        this.queueCapacity = queueCapacity;
+        this.queuePermits = new Semaphore(queueCapacity);
+
+        this.workScheduler = new ThreadPoolWorkScheduler(name, new DefaultWorkThreadFactory(name + "-thread-"));
+        workScheduler.setName(name);
+        workScheduler.setMinThread(threads);
+        workScheduler.setMaxThread(threads);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ThreadPoolWorkScheduler getWorkScheduler() {
+        return workScheduler;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public PipelineStage getNextStage() {
+        return nextStage;
+    }
+
+    /*package*/ void setNextStage(PipelineStage nextStage) {
+        this.nextStage = nextStage;
+    }
+
+    public int getThreads() {
+        return workScheduler.getMaxThread();
+    }
+
+    /**
+     * Change the threads of the stage. Surplus threads exit after their
+     * current item.
+     *
+     * @param threads the threads
+     */
+    public void setThreads(int threads) {
+        workScheduler.setMinThread(threads);
+        workScheduler.setMaxThread(threads);
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getActiveItems() {
+        return activeItems.get();
+    }
+
+    public long getProcessedItems() {
+        return processedItems.get();
+    }
+
+    public long getFailedItems() {
+        return failedItems.get();
+    }
+
+    /**
+     * @return the total time spent in the handler, in nanoseconds
+     */
+    public long getServiceNanos() {
+        return serviceNanos.get();
+    }
+
+    /**
+     * @return the average time spent in the handler per item, in nanoseconds
+     */
+    public long getAverageServiceNanos() {
+        long processed = processedItems.get() + failedItems.get();
+        return processed > 0 ? serviceNanos.get() / processed : 0;
+    }
+
+    /*package*/ void start() {
+        workScheduler.scheduleWorks();
+    }
+
+    /*package*/ void stop() {
+        if (stopped) {
+            return;
+        }
+
+        stopped = true;
+        workScheduler.prohibitAddingWork();
+        workScheduler.cancel();
+
+        //wake a submitter blocked on the full queue, it fails to enqueue and
+        //passes the permit on to the next one
+        queuePermits.release();
+    }
+
+    /**
+     * Submit an item, waiting while the queue is full.
+     *
+     * @param item the item
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the stage is stopped
+     */
+    public void submit(Object item) throws InterruptedException {
+        checkStopped();
+        queuePermits.acquire();
+        enqueue(item);
+    }
+
+    /**
+     * Submit an item, waiting at most the timeout while the queue is full.
+     *
+     * @param item the item
+     * @param timeout the timeout in milliseconds
+     * @return false if the queue was still full after the timeout
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the stage is stopped
+     */
+    public boolean offer(Object item, long timeout) throws InterruptedException {
+        checkStopped();
+        if (!queuePermits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+
+        enqueue(item);
+        return true;
+    }
+
+    private void checkStopped() {
+        if (stopped) {
+            throw new IllegalStateException("Pipeline stage " + name + " is stopped!");
+        }
+    }
+
+    private void enqueue(Object item) {
+        queueDepth.incrementAndGet();
+        if (stopped || !workScheduler.addWork(new StageWork(item))) {
+            queueDepth.decrementAndGet();
+            queuePermits.release();
+            throw new IllegalStateException("Pipeline stage " + name + " is stopped!");
+        }
+    }
+
+    private class StageWork extends WorkBase {
+
+        private final Object item;
+
+        private StageWork(Object item) {
+            this.item = item;
+        }
+
+        @Override
+        public void doWork() {
+            queueDepth.decrementAndGet();
+            queuePermits.release();
+            activeItems.incrementAndGet();
+
+            Object output = null;
+            long begin = System.nanoTime();
+            try {
+                output = stageHandler.handle(item);
+                processedItems.incrementAndGet();
+            } catch (Exception ex) {
+                failedItems.incrementAndGet();
+                _logger.log(Level.WARNING, strings.get("pipeline.stage.item.failed", name), ex);
+            } finally {
+                serviceNanos.addAndGet(System.nanoTime() - begin);
+                activeItems.decrementAndGet();
+            }
+
+            if (output != null && nextStage != null) {
+                try {
+                    nextStage.submit(output);
+                } catch (InterruptedException inEx) {
+                    _logger.log(Level.WARNING, strings.get("pipeline.stage.item.interrupted", name, nextStage.getName()));
+                    Thread.currentThread().interrupt();
+                } catch (IllegalStateException isEx) {
+                    if (_logger.isLoggable(Level.FINE)) {
+                        _logger.log(Level.FINE, strings.get("pipeline.stage.item.stopped", name, nextStage.getName()));
+                    }
+                }
+            }
+        }
+    }
+
+}
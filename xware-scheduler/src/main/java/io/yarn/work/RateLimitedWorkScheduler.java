@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduler that dispatches works to the delegating scheduler no faster
+ * than the {@link TokenBucket} of the work's key allows.
+ *
+ * Works over the limit are held back in a per key queue, no thread is blocked.
+ * Held works are released whenever a work is added or finished, and by a
+ * daemon releaser thread waking when the next permit of a held key is due,
+ * which exits once no work is held. A work the delegating scheduler rejects
+ * gives its permit back and is cancelled.
+ *
+ * Keys come and go: the empty queue of a key and its bucket under the
+ * default limit, once full again, are dropped when held works are released.
+ * A key seen again starts with a full bucket, as it would have refilled.
+ * Limits set by {@link #setLimit(Object, double, int)} are kept.
+ */
+public class RateLimitedWorkScheduler extends DelegatingWorkSecheduler implements WorkListener {
+
+    private static final Object DEFAULT_KEY = new Object();
+
+    private static final long MIN_RELEASE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final WorkKeyResolver DEFAULT_KEY_RESOLVER = new WorkKeyResolver() {
+        @Override
+        public Object resolveKey(Work work) {
+            return DEFAULT_KEY;
+        }
+    };
+
+    /**
+     * The buckets of the keys given a limit.
+     */
+    private final ConcurrentMap<Object, TokenBucket> tokenBuckets = new ConcurrentHashMap<Object, TokenBucket>();
+
+    /**
+     * The buckets of the other keys, under the default limit.
+     */
+    private final ConcurrentMap<Object, TokenBucket> defaultTokenBuckets = new ConcurrentHashMap<Object, TokenBucket>();
+
+    private final ConcurrentMap<Object, Queue<Work>> pendingWorks = new ConcurrentHashMap<Object, Queue<Work>>();
+
+    private final double defaultPermitsPerSecond;
+
+    private final int defaultBurst;
+
+    private WorkKeyResolver keyResolver = DEFAULT_KEY_RESOLVER;
+
+    private TimerWork pendingWorkReleaser;
+
+    private final Object releaserLock = new Object();
+
+    /**
+     * The releaser thread, null while no work is held. Guarded by
+     * releaserLock.
+     */
+    private Thread releaserThread;
+
+    /**
+     * Whether works were held since the releaser last looked. Guarded by
+     * releaserLock.
+     */
+    private boolean releaseRequested = false;
+
+    public RateLimitedWorkScheduler(WorkScheduler delegating, double permitsPerSecond, int burst) {
+        super(delegating);
+        this.defaultPermitsPerSecond = permitsPerSecond;
+        this.defaultBurst = burst;
+    }
+
+    public WorkKeyResolver getKeyResolver() {
+        return keyResolver;
+    }
+
+    public void setKeyResolver(WorkKeyResolver keyResolver) {
+        this.keyResolver = keyResolver != null ? keyResolver : DEFAULT_KEY_RESOLVER;
+    }
+
+    /**
+     * Set the limit of a key, replacing the default limit for it.
+     *
+     * @param key the key returned by the key resolver
+     * @param permitsPerSecond the steady rate
+     * @param burst the works dispatched at once after being idle
+     */
+    public void setLimit(Object key, double permitsPerSecond, int burst) {
+        tokenBuckets.put(key, new TokenBucket(permitsPerSecond, burst));
+        defaultTokenBuckets.remove(key);
+    }
+
+    /**
+     * @return the keys with a bucket or a queue of held works
+     */
+    public int getKeySize() {
+        int size = tokenBuckets.size() + defaultTokenBuckets.size();
+        for (Object key : pendingWorks.keySet()) {
+            if (!tokenBuckets.containsKey(key) && !defaultTokenBuckets.containsKey(key)) {
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+    public int getPendingWorkSize() {
+        int size = 0;
+        for (Queue<Work> queue : pendingWorks.values()) {
+            size += queue.size();
+        }
+
+        return size;
+    }
+
+    @Override
+    public boolean addWork(Work work) {
+        if (!allowAddingWork(work)) {
+            return false;
+        }
+
+        Object key = resolveKey(work);
+        Queue<Work> queue = pendingWorks.get(key);
+        if (queue == null || queue.isEmpty()) {
+            TokenBucket tokenBucket = getTokenBucket(key);
+            if (tokenBucket.tryAcquire()) {
+                if (!dispatch(work)) {
+                    tokenBucket.refund(1);
+                    return false;
+                }
+                return true;
+            }
+        }
+
+        queue = holdWork(key, work);
+        releasePendingWorks(key, queue);
+        if (!queue.isEmpty()) {
+            startReleaser();
+        }
+        return true;
+    }
+
+    private Queue<Work> holdWork(Object key, Work work) {
+        for (;;) {
+            Queue<Work> queue = getPendingQueue(key);
+            queue.offer(work);
+            if (pendingWorks.get(key) == queue || !queue.remove(work)) {
+                //held, or taken from the dropped queue by the thread dropping it
+                return queue;
+            }
+            //the queue was dropped before the offer, hold it again
+        }
+    }
+
+    @Override
+    public boolean hasWork() {
+        return super.hasWork() || getPendingWorkSize() > 0;
+    }
+
+    /**
+     * Dispatch the held works whose key has permits again.
+     */
+    public void releasePendingWorks() {
+        for (Map.Entry<Object, Queue<Work>> entry : pendingWorks.entrySet()) {
+            Queue<Work> queue = entry.getValue();
+            releasePendingWorks(entry.getKey(), queue);
+            if (queue.isEmpty() && pendingWorks.remove(entry.getKey(), queue)) {
+                //works offered while it was dropped
+                Work work;
+                while ((work = queue.poll()) != null) {
+                    holdWork(entry.getKey(), work);
+                }
+            }
+        }
+
+        for (Map.Entry<Object, TokenBucket> entry : defaultTokenBuckets.entrySet()) {
+            //a bucket taken just before it is dropped may let one more burst through
+            if (entry.getValue().isFull() && !pendingWorks.containsKey(entry.getKey())) {
+                defaultTokenBuckets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void releasePendingWorks(Object key, Queue<Work> queue) {
+        TokenBucket tokenBucket = getTokenBucket(key);
+        while (!queue.isEmpty() && tokenBucket.tryAcquire()) {
+            Work work = queue.poll();
+            if (work == null) {
+                //drained by another thread
+                tokenBucket.refund(1);
+                break;
+            }
+
+            if (!dispatch(work)) {
+                //rejected, such as by a stopped scheduler
+                tokenBucket.refund(1);
+                work.cancel();
+            }
+        }
+    }
+
+    /**
+     * Make sure the releaser thread runs, waking it to look at the keys held
+     * since it last did.
+     */
+    private void startReleaser() {
+        synchronized (releaserLock) {
+            releaseRequested = true;
+            if (releaserThread != null) {
+                releaserLock.notifyAll();
+                return;
+            }
+
+            releaserThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runReleaser();
+                }
+            }, getName() + "-releaser");
+            releaserThread.setDaemon(true);
+            releaserThread.start();
+        }
+    }
+
+    private void runReleaser() {
+        for (;;) {
+            synchronized (releaserLock) {
+                releaseRequested = false;
+            }
+
+            releasePendingWorks();
+            long waitNanos = getReleaseWaitNanos();
+            synchronized (releaserLock) {
+                if (releaseRequested) {
+                    continue;
+                }
+
+                if (waitNanos < 0) {
+                    releaserThread = null;
+                    return;
+                }
+
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(releaserLock, Math.max(waitNanos, MIN_RELEASE_WAIT_NANOS));
+                } catch (InterruptedException inEx) {
+                    releaserThread = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the time until the next permit of a held key, -1 if no work is
+     * held
+     */
+    private long getReleaseWaitNanos() {
+        long waitNanos = -1;
+        for (Map.Entry<Object, Queue<Work>> entry : pendingWorks.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+
+            long keyWaitNanos = getTokenBucket(entry.getKey()).getWaitNanos();
+            if (waitNanos < 0 || keyWaitNanos < waitNanos) {
+                waitNanos = keyWaitNanos;
+            }
+        }
+
+        return waitNanos;
+    }
+
+    /**
+     * A repeatable timer work releasing held works. The releaser thread
+     * already releases them when their permits are due, the timer only adds
+     * periodic checks.
+     *
+     * @return the releaser timer work
+     */
+    public synchronized TimerWork getPendingWorkReleaser() {
+        if (pendingWorkReleaser == null) {
+            pendingWorkReleaser = new TimerWork(new Runnable() {
+                @Override
+                public void run() {
+                    releasePendingWorks();
+                }
+            });
+            pendingWorkReleaser.setName(getName() + "-releaser");
+            pendingWorkReleaser.setScheduleOnlyOnce(false);
+            pendingWorkReleaser.setScheduleInterval(10);
+        }
+
+        return pendingWorkReleaser;
+    }
+
+    private boolean dispatch(Work work) {
+        work.addWorkListener(this);
+        if (!super.addWork(work)) {
+            work.removeWorkListener(this);
+            return false;
+        }
+
+        return true;
+    }
+
+    private Object resolveKey(Work work) {
+        Object key = keyResolver.resolveKey(work);
+        return key != null ? key : DEFAULT_KEY;
+    }
+
+    private TokenBucket getTokenBucket(Object key) {
+        TokenBucket tokenBucket = tokenBuckets.get(key);
+        if (tokenBucket != null) {
+            return tokenBucket;
+        }
+
+        tokenBucket = defaultTokenBuckets.get(key);
+        if (tokenBucket == null) {
+            TokenBucket created = new TokenBucket(defaultPermitsPerSecond, defaultBurst);
+            tokenBucket = defaultTokenBuckets.putIfAbsent(key, created);
+            if (tokenBucket == null) {
+                tokenBucket = created;
+            }
+        }
+
+        return tokenBucket;
+    }
+
+    private Queue<Work> getPendingQueue(Object key) {
+        Queue<Work> queue = pendingWorks.get(key);
+        if (queue == null) {
+            Queue<Work> created = new ConcurrentLinkedQueue<Work>();
+            queue = pendingWorks.putIfAbsent(key, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+
+        return queue;
+    }
+
+    @Override
+    public void workStarted(Work work) {
+    }
+
+    @Override
+    public void workAborted(Work work, Throwable t) {
+        releasePendingWorks();
+    }
+
+    @Override
+    public void workCancelled(Work work, Throwable t) {
+        releasePendingWorks();
+    }
+
+    @Override
+    public void workFinished(Work work, Throwable t) {
+        work.removeWorkListener(this);
+        releasePendingWorks();
+    }
+
+}
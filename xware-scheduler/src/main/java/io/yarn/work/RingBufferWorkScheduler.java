@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single stage pipeline passing preallocated events from producers to
+ * consumer works through a ring buffer, without allocating per event.
+ *
+ * Producers claim a sequence with {@link #next()}, fill the event returned by
+ * {@link #get(long)} in place and make it visible with {@link #publish(long)}.
+ * Each consumer is a long running work added to the work scheduler by
+ * {@link #start()}. Consumers claim ranges of up to batchSize sequences and
+ * process each range as soon as its events are published. Producers wait
+ * while the slot they claim has not been processed yet.
+ *
+ * @param <E> the event type
+ */
+public class RingBufferWorkScheduler<E> {
+
+    private static final Logger _logger = Logger.getLogger(RingBufferWorkScheduler.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(RingBufferWorkScheduler.class);
+
+    private static final int SPIN_TRIES = 100;
+
+    private static final int YIELD_TRIES = 100;
+
+    private final WorkScheduler workScheduler;
+
+    private final EventHandler<E> eventHandler;
+
+    private final Object[] entries;
+
+    private final int bufferSize;
+
+    private final int indexMask;
+
+    private final int indexShift;
+
+    /**
+     * The round of the sequence last published in each slot.
+     */
+    private final AtomicIntegerArray availableBuffer;
+
+    /**
+     * The highest sequence claimed by producers.
+     */
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    /**
+     * The highest sequence claimed by consumers.
+     */
+    private final AtomicLong workSequence = new AtomicLong(-1);
+
+    private final AtomicLong gatingSequenceCache = new AtomicLong(-1);
+
+    private final ConsumerWork[] consumerWorks;
+
+    private int batchSize = 16;
+
+    private long parkNanos = 50 * 1000;
+
+    private volatile boolean running = false;
+
+    @SuppressWarnings("unchecked")
+    public RingBufferWorkScheduler(WorkScheduler workScheduler, EventFactory<E> eventFactory,
+            int bufferSize, EventHandler<E> eventHandler, int consumers) {
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("bufferSize must be a power of 2: " + bufferSize);
+        }
+
+        if (consumers < 1) {
+            throw new IllegalArgumentException("consumers must be at least 1: " + consumers);
+        }
+
+        this.workScheduler = workScheduler;
+        this.eventHandler = eventHandler;
+        this.bufferSize = bufferSize;
+        this.indexMask = bufferSize - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(bufferSize);
+
+        this.entries = new Object[bufferSize];
+        this.availableBuffer = new AtomicIntegerArray(bufferSize);
+        for (int i = 0; i < bufferSize; i++) {
+            entries[i] = eventFactory.newInstance();
+            availableBuffer.set(i, -1);
+        }
+
+        @SuppressWarnings("unchecked")
+        ConsumerWork[] works = (ConsumerWork[]) new RingBufferWorkScheduler<?>.ConsumerWork[consumers];
+        for (int i = 0; i < consumers; i++) {
+            works[i] = new ConsumerWork(i);
+        }
+        this.consumerWorks = works;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getParkNanos() {
+        return parkNanos;
+    }
+
+    /**
+     * Set how long an idle consumer or a producer waiting for a free slot
+     * parks after spinning and yielding.
+     *
+     * @param parkNanos the park time in nanoseconds
+     */
+    public void setParkNanos(long parkNanos) {
+        this.parkNanos = parkNanos;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Add the consumer works to the work scheduler. The work scheduler needs
+     * a thread for each consumer.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        for (ConsumerWork consumerWork : consumerWorks) {
+            consumerWork.recycle();
+            workScheduler.addWork(consumerWork);
+        }
+    }
+
+    /**
+     * Stop the consumer works after their current batch. Events published but
+     * not processed stay in the ring buffer until started again.
+     */
+    public synchronized void halt() {
+        running = false;
+    }
+
+    /**
+     * Claim the next sequence, waiting while the ring buffer is full.
+     *
+     * @return the claimed sequence
+     */
+    public long next() {
+        for (;;) {
+            long sequence = tryNext();
+            if (sequence >= 0) {
+                return sequence;
+            }
+
+            LockSupport.parkNanos(1);
+        }
+    }
+
+    /**
+     * Claim the next sequence if the ring buffer is not full.
+     *
+     * @return the claimed sequence, or -1 if the ring buffer is full
+     */
+    public long tryNext() {
+        for (;;) {
+            long current = cursor.get();
+            long next = current + 1;
+            long wrapPoint = next - bufferSize;
+
+            if (wrapPoint > gatingSequenceCache.get()) {
+                long gatingSequence = getMinimumConsumerSequence(current);
+                if (wrapPoint > gatingSequence) {
+                    return -1;
+                }
+
+                gatingSequenceCache.set(gatingSequence);
+            } else if (cursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & indexMask];
+    }
+
+    /**
+     * Make the event of the claimed sequence visible to the consumers.
+     *
+     * @param sequence the claimed sequence
+     */
+    public void publish(long sequence) {
+        availableBuffer.lazySet((int) sequence & indexMask, (int) (sequence >>> indexShift));
+    }
+
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    public long remainingCapacity() {
+        long consumed = getMinimumConsumerSequence(cursor.get());
+        return bufferSize - (cursor.get() - consumed);
+    }
+
+    private long getMinimumConsumerSequence(long minimum) {
+        for (ConsumerWork consumerWork : consumerWorks) {
+            long sequence = consumerWork.sequence.get();
+            if (sequence < minimum) {
+                minimum = sequence;
+            }
+        }
+
+        return minimum;
+    }
+
+    private boolean isAvailable(long sequence) {
+        return availableBuffer.get((int) sequence & indexMask) == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * The sequence barrier of the consumers: wait until the sequence is
+     * published.
+     *
+     * @return the highest contiguous published sequence from the sequence,
+     * or less than the sequence if halted while waiting
+     */
+    private long waitFor(long sequence, long limit) {
+        int tries = 0;
+        while (!isAvailable(sequence)) {
+            if (!running) {
+                return sequence - 1;
+            }
+
+            if (tries < SPIN_TRIES) {
+                tries++;
+            } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+                tries++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+            }
+        }
+
+        long available = sequence;
+        while (available < limit && isAvailable(available + 1)) {
+            available++;
+        }
+
+        return available;
+    }
+
+    private class ConsumerWork extends WorkBase {
+
+        /**
+         * The sequence up to which this consumer has processed, the producers
+         * do not overwrite later slots.
+         */
+        private final AtomicLong sequence = new AtomicLong(-1);
+
+        /**
+         * The last sequence of the range claimed by this consumer, kept when
+         * halted so that no claimed event is skipped.
+         */
+        private long claimEnd = -1;
+
+        private ConsumerWork(int index) {
+            setName("ring-buffer-consumer-" + index);
+        }
+
+        @Override
+        public void doWork() {
+            long nextSequence = sequence.get() + 1;
+
+            while (running) {
+                if (nextSequence > claimEnd) {
+                    long claimed;
+                    do {
+                        claimed = workSequence.get();
+                        sequence.set(claimed);
+                    } while (!workSequence.compareAndSet(claimed, claimed + batchSize));
+
+                    nextSequence = claimed + 1;
+                    claimEnd = claimed + batchSize;
+                }
+
+                long available = waitFor(nextSequence, claimEnd);
+                for (long s = nextSequence; s <= available; s++) {
+                    try {
+                        eventHandler.onEvent(get(s), s, s == available);
+                    } catch (Exception ex) {
+                        _logger.log(Level.SEVERE, strings.get("ring.buffer.event.exception", s, getName()), ex);
+                    }
+                }
+
+                if (available >= nextSequence) {
+                    sequence.lazySet(available);
+                    nextSequence = available + 1;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,460 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a group of works on a scheduler, racing a duplicate against every
+ * {@link IdempotentWork} that runs well past the median runtime of the last
+ * runtimeWindow finished works of the group.
+ *
+ * A work runs speculatively once it has run longer than speculationRatio
+ * times the median, at least minSpeculationTime, and minFinishedWorks works
+ * have finished. The first copy finishing without exception wins, the other
+ * is cancelled and interrupted: both copies are made cancellable while
+ * executing. The winner and its result are looked up by the added work, for
+ * the last maxCompletedWorks completed works.
+ *
+ * The group is a repeatable {@link TimerWork} checking for stragglers, add it
+ * to a {@link TimerWorkScheduler} to run it.
+ */
+public class SpeculativeWorkGroup extends TimerWork {
+
+    private static final Logger _logger = Logger.getLogger(SpeculativeWorkGroup.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(SpeculativeWorkGroup.class);
+
+    private final WorkScheduler workScheduler;
+
+    private final WorkListener workListener = new SpeculationListener();
+
+    /**
+     * Both copies of an unfinished work map to its speculation.
+     */
+    private final Map<Work, Speculation> speculations = new IdentityHashMap<Work, Speculation>();
+
+    private final List<Speculation> unfinished = new LinkedList<Speculation>();
+
+    /**
+     * The winners of the last completed works, by added work.
+     */
+    private final Map<Work, Work> winners = new LinkedHashMap<Work, Work>() {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Work, Work> eldest) {
+            return size() > maxCompletedWorks;
+        }
+    };
+
+    /**
+     * Ring of the runtimes of the last finished works.
+     */
+    private long[] runtimes = new long[64];
+
+    private int runtimeCount = 0;
+
+    private int runtimeIndex = 0;
+
+    /**
+     * Median of the runtimes, -1 once a runtime is added.
+     */
+    private long medianRuntime = -1;
+
+    private int maxCompletedWorks = 1024;
+
+    private double speculationRatio = 1.5;
+
+    private long minSpeculationTime = 100;
+
+    private int minFinishedWorks = 3;
+
+    private int speculatedWorks = 0;
+
+    private int duplicatesWon = 0;
+
+    public SpeculativeWorkGroup(WorkScheduler workScheduler) {
+        super(null);
+        this.workScheduler = workScheduler;
+        super.setScheduleOnlyOnce(false);
+        super.setScheduleInterval(100);
+    }
+
+    public double getSpeculationRatio() {
+        return speculationRatio;
+    }
+
+    public void setSpeculationRatio(double speculationRatio) {
+        this.speculationRatio = speculationRatio;
+    }
+
+    public long getMinSpeculationTime() {
+        return minSpeculationTime;
+    }
+
+    public void setMinSpeculationTime(long minSpeculationTime) {
+        this.minSpeculationTime = minSpeculationTime;
+    }
+
+    public int getMinFinishedWorks() {
+        return minFinishedWorks;
+    }
+
+    public void setMinFinishedWorks(int minFinishedWorks) {
+        this.minFinishedWorks = minFinishedWorks;
+    }
+
+    public synchronized int getRuntimeWindow() {
+        return runtimes.length;
+    }
+
+    /**
+     * @param runtimeWindow the number of the last finished works whose median
+     * runtime is speculated against
+     */
+    public synchronized void setRuntimeWindow(int runtimeWindow) {
+        if (runtimeWindow <= 0) {
+            throw new IllegalArgumentException("runtimeWindow must be positive: " + runtimeWindow);
+        }
+
+        runtimes = new long[runtimeWindow];
+        runtimeCount = 0;
+        runtimeIndex = 0;
+        medianRuntime = -1;
+    }
+
+    public synchronized int getMaxCompletedWorks() {
+        return maxCompletedWorks;
+    }
+
+    public synchronized void setMaxCompletedWorks(int maxCompletedWorks) {
+        this.maxCompletedWorks = maxCompletedWorks;
+    }
+
+    public synchronized int getSpeculatedWorks() {
+        return speculatedWorks;
+    }
+
+    public synchronized int getDuplicatesWon() {
+        return duplicatesWon;
+    }
+
+    /**
+     * Add a work of the group to the scheduler.
+     *
+     * @param work the work, speculated only if it is an {@link IdempotentWork}
+     * @return false if the scheduler did not accept the work
+     */
+    public boolean addWork(Work work) {
+        if (work instanceof IdempotentWork) {
+            //so that the losing copy can be cancelled
+            work.setSupportCancelDuringExecuting(true);
+        }
+
+        Speculation speculation = new Speculation(work);
+        synchronized (this) {
+            speculations.put(work, speculation);
+            unfinished.add(speculation);
+        }
+
+        work.addWorkListener(workListener);
+        if (!workScheduler.addWork(work)) {
+            work.removeWorkListener(workListener);
+            synchronized (this) {
+                speculations.remove(work);
+                unfinished.remove(speculation);
+                notifyAll();
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The copy that completed the work: the work itself or its duplicate.
+     *
+     * @param work the work added to the group
+     * @return the winning copy, null if not completed
+     */
+    public synchronized Work getWinner(Work work) {
+        return winners.get(work);
+    }
+
+    /**
+     * @param work the work added to the group
+     * @return the result of the winning copy, null if not completed
+     */
+    public Object getResult(Work work) {
+        Work winner = getWinner(work);
+        return winner != null ? winner.getResult() : null;
+    }
+
+    public synchronized boolean isGroupFinished() {
+        return unfinished.isEmpty();
+    }
+
+    /**
+     * Wait until every work of the group has completed, failed or been
+     * cancelled.
+     *
+     * @param timeout the timeout in milliseconds, 0 to wait forever
+     * @return false if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean waitGroupFinish(long timeout) throws InterruptedException {
+        long endTime = timeout > 0 ? getTimeSource().currentTimeMillis() + timeout : 0;
+        while (!unfinished.isEmpty()) {
+            if (timeout <= 0) {
+                wait();
+                continue;
+            }
+
+            long remaining = endTime - getTimeSource().currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+
+        return true;
+    }
+
+    @Override
+    protected void doTimerWork() {
+        List<Work> duplicates = null;
+        synchronized (this) {
+            if (runtimeCount < minFinishedWorks || unfinished.isEmpty()) {
+                return;
+            }
+
+            long threshold = Math.max(TimeUnit.MILLISECONDS.toNanos(minSpeculationTime),
+                    (long) (medianRuntime() * speculationRatio));
+            long now = getTimeSource().nanoTime();
+            for (Speculation speculation : unfinished) {
+                if (speculation.duplicate != null || !speculation.started
+                        || !(speculation.original instanceof IdempotentWork)) {
+                    continue;
+                }
+
+                if (now - speculation.startTime < threshold) {
+                    continue;
+                }
+
+                Work duplicate = ((IdempotentWork) speculation.original).duplicate();
+                duplicate.setSupportCancelDuringExecuting(true);
+                speculation.duplicate = duplicate;
+                speculations.put(duplicate, speculation);
+                speculatedWorks++;
+                if (duplicates == null) {
+                    duplicates = new LinkedList<Work>();
+                }
+                duplicates.add(duplicate);
+
+                if (_logger.isLoggable(Level.FINE)) {
+                    _logger.log(Level.FINE, strings.get("work.speculated", speculation.original.getName(),
+                            TimeUnit.NANOSECONDS.toMillis(now - speculation.startTime)));
+                }
+            }
+        }
+
+        if (duplicates == null) {
+            return;
+        }
+
+        for (Work duplicate : duplicates) {
+            duplicate.addWorkListener(workListener);
+            if (!workScheduler.addWork(duplicate)) {
+                duplicate.removeWorkListener(workListener);
+                duplicateRejected(duplicate);
+            }
+        }
+    }
+
+    /**
+     * Forget a duplicate the scheduler did not take, finishing its
+     * speculation if the original failed meanwhile waiting for it.
+     */
+    private synchronized void duplicateRejected(Work duplicate) {
+        Speculation speculation = speculations.remove(duplicate);
+        if (speculation == null || speculation.duplicate != duplicate) {
+            return;
+        }
+
+        speculation.duplicate = null;
+        speculatedWorks--;
+        if (speculation.isTerminated(speculation.original)) {
+            speculations.remove(speculation.original);
+            unfinished.remove(speculation);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Called with the group lock held.
+     */
+    private long medianRuntime() {
+        if (medianRuntime < 0) {
+            long[] sorted = Arrays.copyOf(runtimes, runtimeCount);
+            Arrays.sort(sorted);
+            medianRuntime = sorted[sorted.length / 2];
+        }
+
+        return medianRuntime;
+    }
+
+    /**
+     * Called with the group lock held.
+     */
+    private void addRuntime(long runtime) {
+        runtimes[runtimeIndex] = runtime;
+        runtimeIndex = (runtimeIndex + 1) % runtimes.length;
+        if (runtimeCount < runtimes.length) {
+            runtimeCount++;
+        }
+        medianRuntime = -1;
+    }
+
+    private void workStarted(Work work) {
+        synchronized (this) {
+            Speculation speculation = speculations.get(work);
+            if (speculation == null) {
+                return;
+            }
+
+            long now = getTimeSource().nanoTime();
+            if (work == speculation.original) {
+                speculation.startTime = now;
+                speculation.started = true;
+            } else {
+                speculation.duplicateStartTime = now;
+            }
+        }
+    }
+
+    private void workCompleted(Work work, Throwable t, boolean cancelled) {
+        Work loser = null;
+        synchronized (this) {
+            Speculation speculation = speculations.get(work);
+            if (speculation == null) {
+                return;
+            }
+
+            if (t == null && work.hasException()) {
+                t = work.getException();
+            }
+
+            Work other = work == speculation.original ? speculation.duplicate : speculation.original;
+            if (cancelled || t != null) {
+                //the other copy may still win
+                if (other != null && !speculation.isTerminated(other)) {
+                    speculation.terminate(work);
+                    return;
+                }
+            } else {
+                winners.put(speculation.original, work);
+                long startTime = work == speculation.original ? speculation.startTime : speculation.duplicateStartTime;
+                addRuntime(getTimeSource().nanoTime() - startTime);
+                if (work != speculation.original) {
+                    duplicatesWon++;
+                }
+                if (other != null && !speculation.isTerminated(other)) {
+                    loser = other;
+                }
+            }
+
+            speculations.remove(speculation.original);
+            if (speculation.duplicate != null) {
+                speculations.remove(speculation.duplicate);
+            }
+            unfinished.remove(speculation);
+            notifyAll();
+        }
+
+        if (loser != null) {
+            loser.cancel();
+            loser.interruptWork();
+        }
+    }
+
+    private static class Speculation {
+
+        private final Work original;
+
+        private Work duplicate;
+
+        private boolean started = false;
+
+        private long startTime;
+
+        private long duplicateStartTime;
+
+        private boolean originalTerminated = false;
+
+        private boolean duplicateTerminated = false;
+
+        private Speculation(Work original) {
+            this.original = original;
+        }
+
+        private void terminate(Work work) {
+            if (work == original) {
+                originalTerminated = true;
+            } else {
+                duplicateTerminated = true;
+            }
+        }
+
+        private boolean isTerminated(Work work) {
+            return work == original ? originalTerminated : duplicateTerminated;
+        }
+    }
+
+    private class SpeculationListener implements WorkListener {
+
+        @Override
+        public void workStarted(Work work) {
+            SpeculativeWorkGroup.this.workStarted(work);
+        }
+
+        @Override
+        public void workAborted(Work work, Throwable t) {
+        }
+
+        @Override
+        public void workCancelled(Work work, Throwable t) {
+            workCompleted(work, t, true);
+        }
+
+        @Override
+        public void workFinished(Work work, Throwable t) {
+            workCompleted(work, t, work.isCancelled());
+        }
+    }
+
+}
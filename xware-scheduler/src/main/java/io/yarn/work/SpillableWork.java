@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.io.Serializable;
+
+/**
+ * A serializable work a scheduler may spill to a {@link WorkSpillQueue} while
+ * it waits in the queue, so that a backlog is bounded by disk rather than
+ * heap.
+ *
+ * Once spilled, the instance added is dropped and only its serialized form is
+ * kept: the work scheduled is the copy read back from the spill queue. The
+ * listeners, waiters and cancellation of the instance added do not reach the
+ * copy, so works watched through their instance, such as the works journaled
+ * by {@link DurableWorkScheduler}, should not be spillable.
+ */
+public interface SpillableWork extends Work, Serializable {
+
+}
@@ -16,11 +16,12 @@
  */
 package io.yarn.work;
 
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -38,12 +39,23 @@ public class ThreadPoolWorkScheduler extends WorkSchedulerBase {
     
     private final ThreadFactory threadFactory;
 
-    private Set<WorkThread> workThreads = new HashSet<WorkThread>();
+    private final Set<WorkThread> workThreads = new HashSet<WorkThread>();
 
     private int waitingThreads = 0;
 
     private boolean scheduled = false;
 
+    /**
+     * The max threads started to compensate blocked threads.
+     */
+    private int maxCompensationThread = 16;
+
+    private final AtomicInteger blockedThreads = new AtomicInteger();
+
+    private final AtomicInteger compensationThreads = new AtomicInteger();
+
+    private WorkThreadGovernor threadGovernor;
+
     public int getMinThread() {
         return minThread;
     }
@@ -68,6 +80,36 @@ public class ThreadPoolWorkScheduler extends WorkSchedulerBase {
         this.idleTimeout = idleTimeout;
     }
 
+    public int getMaxCompensationThread() {
+        return maxCompensationThread;
+    }
+
+    public void setMaxCompensationThread(int maxCompensationThread) {
+        this.maxCompensationThread = maxCompensationThread;
+    }
+
+    public int getBlockedThreads() {
+        return blockedThreads.get();
+    }
+
+    public int getCompensationThreads() {
+        return compensationThreads.get();
+    }
+
+    public WorkThreadGovernor getThreadGovernor() {
+        return threadGovernor;
+    }
+
+    /**
+     * Share a thread budget with other schedulers: threads above min threads
+     * are borrowed from the governor.
+     *
+     * @param threadGovernor the governor, null for no budget
+     */
+    public void setThreadGovernor(WorkThreadGovernor threadGovernor) {
+        this.threadGovernor = threadGovernor;
+    }
+
     public ThreadPoolWorkScheduler() {
         threadFactory = new DefaultWorkThreadFactory();
     }
@@ -81,12 +123,8 @@ public class ThreadPoolWorkScheduler extends WorkSchedulerBase {
         boolean added = super.addWork(work);
 
         if (scheduled) {
-            if (waitingThreads < maxThread && workThreads.size() < maxThread) {
-                WorkThread workThread = new WorkThread(this);
-                Thread realThread = threadFactory.newThread(workThread);
-                workThread.setThread(realThread);
-                workThreads.add(workThread);
-                realThread.start();
+            if (waitingThreads < maxThread && getThreadSize() < maxThread) {
+                addThread();
             }
         }
 
@@ -120,7 +158,11 @@ public class ThreadPoolWorkScheduler extends WorkSchedulerBase {
             createNums = minThread + (taskSize - minThread) / 2;
         }
 
-        createThreads(createNums);
+        for (int i = 0; i < createNums; i++) {
+            if (!addThread()) {
+                break;
+            }
+        }
     }
 
     @Override
@@ -128,18 +170,231 @@ public class ThreadPoolWorkScheduler extends WorkSchedulerBase {
         // do nothing
     }
 
-    private void createThreads(int createNums) {
-        for (int i = 0; i < createNums; i++) {
-            WorkThread workThread = new WorkThread(this);
-            Thread realThread = threadFactory.newThread(workThread);
-            workThread.setThread(realThread);
+    /**
+     * Block the calling thread with the blocker. If the calling thread is a
+     * thread of a {@link ThreadPoolWorkScheduler}, the scheduler may start a
+     * compensating thread so that the blocked thread does not reduce the
+     * threads available to other works.
+     *
+     * @param blocker the blocker
+     * @throws InterruptedException if the blocker was interrupted
+     */
+    public static void managedBlock(ManagedBlocker blocker) throws InterruptedException {
+        WorkThread workThread = WorkThread.currentWorkThread();
+        if (workThread != null && workThread.getWorkScheduler() instanceof ThreadPoolWorkScheduler) {
+            ThreadPoolWorkScheduler threadPool = (ThreadPoolWorkScheduler) workThread.getWorkScheduler();
+            threadPool.managedBlock(workThread, blocker);
+            return;
+        }
+
+        while (!blocker.isReleasable()) {
+            if (blocker.block()) {
+                break;
+            }
+        }
+    }
+
+    private void managedBlock(WorkThread workThread, ManagedBlocker blocker) throws InterruptedException {
+        if (blocker.isReleasable()) {
+            return;
+        }
+
+        blockedThreads.incrementAndGet();
+        try {
+            tryCompensate();
+
+            while (!blocker.isReleasable()) {
+                if (blocker.block()) {
+                    break;
+                }
+            }
+        } finally {
+            //an idle compensating thread retires at once, a busy one after its work
+            if (blockedThreads.decrementAndGet() < compensationThreads.get()) {
+                wakeIdleThreads();
+            }
+        }
+    }
+
+    private void tryCompensate() {
+        if (!scheduled) {
+            return;
+        }
+
+        for (;;) {
+            int compensations = compensationThreads.get();
+            if (compensations >= maxCompensationThread || compensations >= blockedThreads.get()) {
+                return;
+            }
+
+            if (compensationThreads.compareAndSet(compensations, compensations + 1)) {
+                createThread(true, false);
+                return;
+            }
+        }
+    }
+
+    /*package*/ Work takeWork(WorkThread workThread) throws InterruptedException {
+        if (idleTimeout > 0 && (workThread.isCompensating() || getThreadSize() > minThread)) {
+            return pollWork(idleTimeout);
+        }
+
+        return pollWork();
+    }
+
+    /**
+     * Decide whether the work thread should exit, removing it from the
+     * scheduler if so. Compensating threads exit once the blocked threads they
+     * stand in for are running again, other threads exit when idle while there
+     * are more than min threads, or at once while there are more than max
+     * threads. Borrowed threads also exit at once while the governor finds
+     * this scheduler over its share.
+     *
+     * @param workThread the work thread
+     * @param idle whether the work thread timed out waiting for a work
+     * @return true if the work thread should exit
+     */
+    /*package*/ boolean retireThread(WorkThread workThread, boolean idle) {
+        synchronized (workThreads) {
+            if (workThread.isCompensating()) {
+                int compensations = compensationThreads.get();
+                if (compensations > blockedThreads.get()
+                        && compensationThreads.compareAndSet(compensations, compensations - 1)) {
+                    workThreads.remove(workThread);
+                    return true;
+                }
+
+                return false;
+            }
+
+            int regularThreads = workThreads.size() - compensationThreads.get();
+            boolean retire = regularThreads > maxThread || (idle && regularThreads > minThread);
+            if (!retire && workThread.isBorrowed() && regularThreads > minThread) {
+                retire = threadGovernor != null && threadGovernor.isOverShare(this);
+            }
+
+            if (!retire) {
+                return false;
+            }
+
+            workThreads.remove(workThread);
+        }
+
+        //outside the thread lock, giving back may start a thread of another scheduler
+        giveBack(workThread);
+        return true;
+    }
+
+    /**
+     * Start a thread, borrowing it from the governor if above min threads.
+     *
+     * @return false if the governor has no thread to lend
+     */
+    private boolean addThread() {
+        WorkThreadGovernor governor = threadGovernor;
+        boolean borrowed = false;
+        if (governor != null && getThreadSize() - compensationThreads.get() >= minThread) {
+            if (!governor.tryBorrow(this)) {
+                return false;
+            }
+            borrowed = true;
+        }
+
+        createThread(false, borrowed);
+        return true;
+    }
+
+    /**
+     * Called by the governor when other schedulers wait for threads while
+     * this one is over its share: idle borrowed threads retire at once
+     * rather than after the idle timeout.
+     */
+    /*package*/ void threadsWanted() {
+        wakeIdleThreads();
+    }
+
+    @Override
+    protected boolean releaseIdleThread() {
+        WorkThread workThread = WorkThread.currentWorkThread();
+        if (workThread == null || workThread.getWorkScheduler() != this) {
+            return false;
+        }
+
+        if (workThread.isCompensating()) {
+            return compensationThreads.get() > blockedThreads.get();
+        }
+
+        WorkThreadGovernor governor = threadGovernor;
+        return workThread.isBorrowed() && governor != null && governor.isOverShare(this);
+    }
+
+    @Override
+    public boolean cancel() {
+        if (!super.cancel()) {
+            return false;
+        }
+
+        WorkThreadGovernor governor = threadGovernor;
+        if (governor != null) {
+            governor.deregister(this);
+        }
+        return true;
+    }
+
+    /**
+     * Called by the governor when a thread it denied earlier is available.
+     */
+    /*package*/ void threadAvailable() {
+        //keep asking while there is backlog, so the governor still counts this scheduler waiting
+        while (scheduled && !isCancelled() && hasWork() && getThreadSize() < maxThread) {
+            if (!addThread()) {
+                break;
+            }
+        }
+    }
+
+    private void giveBack(WorkThread workThread) {
+        WorkThreadGovernor governor = threadGovernor;
+        if (workThread.isBorrowed() && governor != null) {
+            workThread.setBorrowed(false);
+            governor.giveBack(this);
+        }
+    }
+
+    private void createThread(boolean compensating, boolean borrowed) {
+        WorkThread workThread = new WorkThread(this, compensating);
+        workThread.setBorrowed(borrowed);
+        Thread realThread = threadFactory.newThread(workThread);
+        workThread.setThread(realThread);
+        synchronized (workThreads) {
             workThreads.add(workThread);
-            realThread.start();
         }
+        realThread.start();
     }
 
     /*package*/ void removeThread(WorkThread workThread) {
-        workThreads.remove(workThread);
+        synchronized (workThreads) {
+            workThreads.remove(workThread);
+        }
+
+        giveBack(workThread);
+    }
+
+    public int getThreadSize() {
+        synchronized (workThreads) {
+            return workThreads.size();
+        }
+    }
+
+    /**
+     * A snapshot of the threads currently owned by this scheduler.
+     *
+     * @return the work threads
+     */
+    public List<WorkThread> getWorkThreads() {
+        synchronized (workThreads) {
+            return new ArrayList<WorkThread>(workThreads);
+        }
     }
 
 }
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+/**
+ * The time sources shared by the works and schedulers.
+ *
+ * The default time source is the {@link MonotonicTimeSource}. A
+ * {@link CachedTimeSource} saves the clock reads of hot loops at the cost of
+ * a ticker thread, set it as the default to use it. Works and schedulers take
+ * the default when created, changing it applies to those created afterwards.
+ */
+public class TimeSources {
+
+    private static final TimeSource MONOTONIC = new MonotonicTimeSource();
+
+    private static volatile TimeSource defaultTimeSource = MONOTONIC;
+
+    private TimeSources() {
+    }
+
+    public static TimeSource monotonic() {
+        return MONOTONIC;
+    }
+
+    public static TimeSource getDefault() {
+        return defaultTimeSource;
+    }
+
+    public static void setDefault(TimeSource timeSource) {
+        if (timeSource == null) {
+            throw new NullPointerException("timeSource");
+        }
+
+        defaultTimeSource = timeSource;
+    }
+
+}
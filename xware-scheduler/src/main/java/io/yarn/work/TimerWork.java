@@ -36,7 +36,9 @@ public class TimerWork extends WorkBase {
 
     private long delayTime = -1;
 
-    private long nextSchedueTime = -1;
+    private long nextSchedueTime;
+
+    private boolean nextScheduleTimeSet = false;
 
     private Runnable task;
 
@@ -62,17 +64,23 @@ public class TimerWork extends WorkBase {
 
     @Override
     public boolean readyToExecute() {
-        long currentTime = System.currentTimeMillis();
-        if (nextSchedueTime == -1 && delayTime > 0) {
-            nextSchedueTime = currentTime + delayTime;
+        if (!nextScheduleTimeSet) {
+            if (delayTime <= 0) {
+                return true;
+            }
+
+            nextSchedueTime = getTimeSource().currentTimeMillis() + delayTime;
+            nextScheduleTimeSet = true;
         }
 
-        return currentTime > nextSchedueTime;
+        //time source readings are compared by difference
+        return getTimeSource().currentTimeMillis() - nextSchedueTime > 0;
     }
 
     @Override
     public void doWork() {
-        nextSchedueTime = System.currentTimeMillis() + scheduleInterval;
+        nextSchedueTime = getTimeSource().currentTimeMillis() + scheduleInterval;
+        nextScheduleTimeSet = true;
 
         try {
             doTimerWork();
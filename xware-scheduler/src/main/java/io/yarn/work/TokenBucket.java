@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock free token bucket.
+ *
+ * Instead of a token count the bucket keeps the theoretical arrival time of
+ * the next permit, so acquiring is a single compare-and-set and refilling
+ * needs no timer. Up to {@code burst} permits may be taken at once after the
+ * bucket has been idle.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+
+    private final long burstNanos;
+
+    private final AtomicLong theoreticalArrivalTime;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1: " + burst);
+        }
+
+        this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = intervalNanos * burst;
+        this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    public double getPermitsPerSecond() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    public int getBurst() {
+        return (int) (burstNanos / intervalNanos);
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    public boolean tryAcquire(int permits) {
+        long cost = intervalNanos * permits;
+        for (;;) {
+            long now = System.nanoTime();
+            long tat = theoreticalArrivalTime.get();
+            long base = tat - now > 0 ? tat : now;
+            long newTat = base + cost;
+            if (newTat - now > burstNanos) {
+                return false;
+            }
+
+            if (theoreticalArrivalTime.compareAndSet(tat, newTat)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back permits acquired but not used.
+     *
+     * @param permits the permits to give back
+     */
+    public void refund(int permits) {
+        theoreticalArrivalTime.addAndGet(-intervalNanos * permits);
+    }
+
+    /**
+     * Whether all burst permits are available, the bucket then behaves as a
+     * new one.
+     *
+     * @return true if the bucket has been idle long enough to refill
+     */
+    public boolean isFull() {
+        return theoreticalArrivalTime.get() - System.nanoTime() <= 0;
+    }
+
+    /**
+     * The time until one permit will be available.
+     *
+     * @return the wait time in nanoseconds, 0 if a permit is available now
+     */
+    public long getWaitNanos() {
+        long wait = theoreticalArrivalTime.get() + intervalNanos - burstNanos - System.nanoTime();
+        return wait > 0 ? wait : 0;
+    }
+
+}
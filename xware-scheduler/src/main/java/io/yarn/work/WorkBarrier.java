@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A cyclic barrier whose waiters are works rather than threads.
+ *
+ * Continuations given to {@link #arriveThen(Work, WorkScheduler)} are parked
+ * until the parties have all arrived, then the barrier action runs on the
+ * thread of the last arrival and the continuations are added to their
+ * schedulers. The barrier is then reset for the next generation.
+ */
+public class WorkBarrier {
+
+    private final int parties;
+
+    private final Runnable barrierAction;
+
+    private List<ParkedWork> parkedWorks = new LinkedList<ParkedWork>();
+
+    private int generation = 0;
+
+    public WorkBarrier(int parties) {
+        this(parties, null);
+    }
+
+    public WorkBarrier(int parties, Runnable barrierAction) {
+        if (parties < 1) {
+            throw new IllegalArgumentException("parties must be at least 1: " + parties);
+        }
+
+        this.parties = parties;
+        this.barrierAction = barrierAction;
+    }
+
+    public int getParties() {
+        return parties;
+    }
+
+    public synchronized int getNumberWaiting() {
+        return parkedWorks.size();
+    }
+
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Arrive at the barrier, adding the continuation to the scheduler once all
+     * parties of this generation have arrived.
+     *
+     * @param continuation the work to run after the barrier trips
+     * @param workScheduler the scheduler to add it to
+     */
+    public void arriveThen(Work continuation, WorkScheduler workScheduler) {
+        List<ParkedWork> resumed;
+        synchronized (this) {
+            parkedWorks.add(new ParkedWork(continuation, workScheduler));
+            if (parkedWorks.size() < parties) {
+                return;
+            }
+
+            resumed = parkedWorks;
+            parkedWorks = new LinkedList<ParkedWork>();
+            generation++;
+        }
+
+        try {
+            if (barrierAction != null) {
+                barrierAction.run();
+            }
+        } finally {
+            for (ParkedWork parkedWork : resumed) {
+                parkedWork.resume();
+            }
+        }
+    }
+
+}
@@ -59,6 +59,11 @@ public abstract class WorkBase implements Work {
      */
     private WorkEventNotification workEventNotification = new DefaultWorkEventNotification();
 
+    /**
+     * The clock of the work's timing.
+     */
+    private TimeSource timeSource = TimeSources.getDefault();
+
     /**
      * The main lock.
      */
@@ -120,6 +125,14 @@ public abstract class WorkBase implements Work {
         this.workEventNotification = workEventNotification;
     }
 
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource;
+    }
+
     @Override
     public void addWorkListener(WorkListener workListener) {
         if (workEventNotification != null) {
@@ -151,6 +164,10 @@ public abstract class WorkBase implements Work {
         return result;
     }
 
+    protected void setResult(Object result) {
+        this.result = result;
+    }
+
     @Override
     public boolean isCancelled() {
         return cancelled;
@@ -174,6 +191,12 @@ public abstract class WorkBase implements Work {
             mainLock.unlock();
         }
 
+        //outside main lock
+        WorkFlightRecorder.getDefault().record(WorkFlightRecorder.CANCELLED, this);
+        if (workEventNotification != null) {
+            workEventNotification.workCancelled(this, null);
+        }
+
         return true;
     }
 
@@ -186,11 +209,11 @@ public abstract class WorkBase implements Work {
                 return false;
             }
 
-            if (scheduleOnlyOnce && scheduled) {
-                return false;
+            if (executing) {
+                return supportCancelDuringExecuting;
             }
 
-            if (executing && !supportCancelDuringExecuting) {
+            if (scheduleOnlyOnce && scheduled) {
                 return false;
             }
         } finally {
@@ -377,14 +400,14 @@ public abstract class WorkBase implements Work {
             return;
         }
 
-        long beginTime = System.currentTimeMillis();
+        long beginTime = timeSource.currentTimeMillis();
         long waitTime = timeout;
         synchronized (waitFinishLock) {
             while (!finished || !cancelled) {
                 try {
                     waitFinishLock.wait(waitTime);
                     if (timeout > 0) {
-                        long elaspe = System.currentTimeMillis() - beginTime;
+                        long elaspe = timeSource.currentTimeMillis() - beginTime;
                         if (elaspe > timeout) {
                             break;
                         } else {
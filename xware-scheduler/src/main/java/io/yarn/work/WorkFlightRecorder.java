@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import io.yarn.common.nio.DirectBufferCleaner;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An always on recorder of work lifecycle events.
+ *
+ * Each thread writes fixed size records of {nanoTime, work id, event} into a
+ * ring of its own, held off heap, without locks or allocation. The rings keep
+ * the last recordsPerThread events of each thread and are merged into a
+ * timeline by {@link #snapshot(long)} or {@link #dump(Appendable, long)}. The
+ * work id is the identity hash code of the work.
+ *
+ * Records being overwritten while a snapshot is taken are dropped from it.
+ *
+ * Once a thread is found dead, its ring is copied to the heap and its direct
+ * memory freed. The rings of the last maxThreadRecords dead threads are kept
+ * for post mortems.
+ */
+public class WorkFlightRecorder {
+
+    public static final int ENQUEUED = 1;
+
+    public static final int STARTED = 2;
+
+    public static final int FINISHED = 3;
+
+    public static final int CANCELLED = 4;
+
+    private static final String[] EVENT_NAMES = {"UNKNOWN", "ENQUEUED", "STARTED", "FINISHED", "CANCELLED"};
+
+    private static final int RECORD_SIZE = 16;
+
+    private static final WorkFlightRecorder DEFAULT_RECORDER = new WorkFlightRecorder();
+
+    private final CopyOnWriteArrayList<ThreadRecords> threadRecords = new CopyOnWriteArrayList<ThreadRecords>();
+
+    private final ThreadLocal<ThreadRecords> currentRecords = new ThreadLocal<ThreadRecords>();
+
+    private volatile boolean enabled = true;
+
+    /**
+     * Rounded up to a power of two, applies to threads recording afterwards.
+     */
+    private int recordsPerThread = 1024;
+
+    /**
+     * The rings of dead threads kept for post mortems.
+     */
+    private int maxThreadRecords = 16;
+
+    /**
+     * The recorder the schedulers record to.
+     *
+     * @return the default recorder
+     */
+    public static WorkFlightRecorder getDefault() {
+        return DEFAULT_RECORDER;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getRecordsPerThread() {
+        return recordsPerThread;
+    }
+
+    public void setRecordsPerThread(int recordsPerThread) {
+        if (recordsPerThread < 1) {
+            throw new IllegalArgumentException("recordsPerThread must be at least 1: " + recordsPerThread);
+        }
+
+        this.recordsPerThread = recordsPerThread;
+    }
+
+    public int getMaxThreadRecords() {
+        return maxThreadRecords;
+    }
+
+    public void setMaxThreadRecords(int maxThreadRecords) {
+        this.maxThreadRecords = maxThreadRecords;
+    }
+
+    /**
+     * Record an event of the work on the calling thread.
+     *
+     * @param event the event, one of the constants of this class
+     * @param work the work
+     */
+    public void record(int event, Work work) {
+        if (!enabled) {
+            return;
+        }
+
+        ThreadRecords records = currentRecords.get();
+        if (records == null) {
+            records = register();
+        }
+
+        records.record(System.nanoTime(), System.identityHashCode(work), event);
+    }
+
+    private ThreadRecords register() {
+        ThreadRecords records = new ThreadRecords(Thread.currentThread(), recordsPerThread);
+        currentRecords.set(records);
+
+        retireDeadRecords();
+        threadRecords.add(records);
+
+        return records;
+    }
+
+    /**
+     * Move the rings of the dead threads to the heap, dropping the oldest
+     * beyond maxThreadRecords.
+     */
+    private void retireDeadRecords() {
+        List<ThreadRecords> retired = new ArrayList<ThreadRecords>();
+        for (ThreadRecords records : threadRecords) {
+            if (!records.isAlive()) {
+                records.retire();
+                retired.add(records);
+            }
+        }
+
+        int excess = retired.size() - maxThreadRecords;
+        if (excess > 0) {
+            threadRecords.removeAll(retired.subList(0, excess));
+        }
+    }
+
+    /**
+     * Merge the rings into a timeline.
+     *
+     * @param since the nano time of the oldest record wanted, Long.MIN_VALUE
+     * for all
+     * @return the records ordered by time
+     */
+    public List<Record> snapshot(long since) {
+        retireDeadRecords();
+        List<Record> timeline = new ArrayList<Record>();
+        for (ThreadRecords records : threadRecords) {
+            records.copyTo(timeline, since);
+        }
+
+        Collections.sort(timeline, new Comparator<Record>() {
+            @Override
+            public int compare(Record r1, Record r2) {
+                //nano times are compared by difference, they may wrap
+                return Long.signum(r1.getNanoTime() - r2.getNanoTime());
+            }
+        });
+
+        return timeline;
+    }
+
+    /**
+     * Write the timeline as text, one record per line, times relative to the
+     * first record.
+     *
+     * @param out where to write
+     * @param since the nano time of the oldest record wanted, Long.MIN_VALUE
+     * for all
+     * @throws IOException if writing fails
+     */
+    public void dump(Appendable out, long since) throws IOException {
+        List<Record> timeline = snapshot(since);
+        if (timeline.isEmpty()) {
+            return;
+        }
+
+        long base = timeline.get(0).getNanoTime();
+        String lineSeparator = System.lineSeparator();
+        for (Record record : timeline) {
+            out.append(String.format("+%.3fms %-9s work@%08x %s#%d",
+                    (record.getNanoTime() - base) / (double) TimeUnit.MILLISECONDS.toNanos(1),
+                    record.getEventName(), record.getWorkId(), record.getThreadName(), record.getThreadId()));
+            out.append(lineSeparator);
+        }
+    }
+
+    /**
+     * Forget all records, the rings of dead threads are dropped.
+     */
+    public void clear() {
+        Iterator<ThreadRecords> iterator = threadRecords.iterator();
+        List<ThreadRecords> dead = new ArrayList<ThreadRecords>();
+        while (iterator.hasNext()) {
+            ThreadRecords records = iterator.next();
+            if (!records.isAlive()) {
+                dead.add(records);
+            } else {
+                records.clear();
+            }
+        }
+        threadRecords.removeAll(dead);
+    }
+
+    public static class Record {
+
+        private final long nanoTime;
+
+        private final int workId;
+
+        private final int event;
+
+        private final long threadId;
+
+        private final String threadName;
+
+        public Record(long nanoTime, int workId, int event, long threadId, String threadName) {
+            this.nanoTime = nanoTime;
+            this.workId = workId;
+            this.event = event;
+            this.threadId = threadId;
+            this.threadName = threadName;
+        }
+
+        public long getNanoTime() {
+            return nanoTime;
+        }
+
+        public int getWorkId() {
+            return workId;
+        }
+
+        public int getEvent() {
+            return event;
+        }
+
+        public String getEventName() {
+            return event > 0 && event < EVENT_NAMES.length ? EVENT_NAMES[event] : EVENT_NAMES[0];
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        @Override
+        public String toString() {
+            return nanoTime + " " + getEventName() + " work@" + Integer.toHexString(workId) + " " + threadName;
+        }
+    }
+
+    /**
+     * The ring of a thread, written by that thread only. Readers and
+     * retirement are serialized by the ring's monitor, so that the direct
+     * memory is not read once freed.
+     */
+    private static class ThreadRecords {
+
+        private final WeakReference<Thread> thread;
+
+        private final long threadId;
+
+        private final String threadName;
+
+        /**
+         * Direct while the thread is alive, copied to the heap once retired.
+         */
+        private ByteBuffer buffer;
+
+        private boolean retired = false;
+
+        private final int mask;
+
+        /**
+         * Records written, published with an ordered write so readers see the
+         * record before the position.
+         */
+        private final AtomicLong position = new AtomicLong();
+
+        /**
+         * Records before this are cleared.
+         */
+        private volatile long start = 0;
+
+        private ThreadRecords(Thread thread, int records) {
+            int capacity = Integer.highestOneBit(records);
+            if (capacity < records) {
+                capacity <<= 1;
+            }
+
+            this.thread = new WeakReference<Thread>(thread);
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+            this.buffer = ByteBuffer.allocateDirect(capacity * RECORD_SIZE);
+            this.mask = capacity - 1;
+        }
+
+        private boolean isAlive() {
+            Thread owner = thread.get();
+            return owner != null && owner.isAlive();
+        }
+
+        /**
+         * Copy the ring of the dead thread to the heap and free its direct
+         * memory.
+         */
+        private synchronized void retire() {
+            if (retired) {
+                return;
+            }
+
+            ByteBuffer direct = buffer;
+            ByteBuffer heap = ByteBuffer.allocate(direct.capacity());
+            heap.put(direct.duplicate());
+            buffer = heap;
+            retired = true;
+            DirectBufferCleaner.clean(direct);
+        }
+
+        private void record(long nanoTime, int workId, int event) {
+            long current = position.get();
+            int offset = (int) (current & mask) * RECORD_SIZE;
+            buffer.putLong(offset, nanoTime);
+            buffer.putInt(offset + 8, workId);
+            buffer.putInt(offset + 12, event);
+            position.lazySet(current + 1);
+        }
+
+        private void clear() {
+            start = position.get();
+        }
+
+        private synchronized void copyTo(List<Record> timeline, long since) {
+            long end = position.get();
+            long begin = Math.max(start, end - (mask + 1));
+
+            int size = (int) (end - begin);
+            long[] nanoTimes = new long[size];
+            int[] workIds = new int[size];
+            int[] events = new int[size];
+            for (int i = 0; i < size; i++) {
+                int offset = (int) ((begin + i) & mask) * RECORD_SIZE;
+                nanoTimes[i] = buffer.getLong(offset);
+                workIds[i] = buffer.getInt(offset + 8);
+                events[i] = buffer.getInt(offset + 12);
+            }
+
+            //drop the records the owner may have overwritten meanwhile, the
+            //record at the position may be half written over the oldest one
+            long valid = Math.max(begin, position.get() + 1 - (mask + 1));
+            for (int i = (int) (valid - begin); i < size; i++) {
+                if (since != Long.MIN_VALUE && nanoTimes[i] - since < 0) {
+                    continue;
+                }
+
+                timeline.add(new Record(nanoTimes[i], workIds[i], events[i], threadId, threadName));
+            }
+        }
+    }
+
+}
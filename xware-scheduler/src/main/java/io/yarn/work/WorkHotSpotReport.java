@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stack samples of long running works, aggregated by work name.
+ *
+ * For every work name the report counts how often each frame was seen on the
+ * top of the stack (self) and anywhere in the stack (total).
+ */
+public class WorkHotSpotReport {
+
+    private static final int DEFAULT_TOP_FRAMES = 10;
+
+    private final Map<String, WorkSamples> workSamples = new HashMap<String, WorkSamples>();
+
+    public synchronized void addSample(String workName, long elapsedMillis, StackTraceElement[] stackTrace) {
+        WorkSamples samples = workSamples.get(workName);
+        if (samples == null) {
+            samples = new WorkSamples(workName);
+            workSamples.put(workName, samples);
+        }
+
+        samples.add(elapsedMillis, stackTrace);
+    }
+
+    public synchronized List<WorkSamples> getWorkSamples() {
+        List<WorkSamples> result = new ArrayList<WorkSamples>(workSamples.size());
+        for (WorkSamples samples : workSamples.values()) {
+            result.add(samples.copy());
+        }
+
+        Collections.sort(result, new Comparator<WorkSamples>() {
+            @Override
+            public int compare(WorkSamples o1, WorkSamples o2) {
+                return Long.compare(o2.getSampleCount(), o1.getSampleCount());
+            }
+        });
+
+        return result;
+    }
+
+    public synchronized void reset() {
+        workSamples.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (WorkSamples samples : getWorkSamples()) {
+            sb.append(samples.getWorkName())
+                    .append(": samples=").append(samples.getSampleCount())
+                    .append(", maxElapsed=").append(samples.getMaxElapsedMillis()).append("ms")
+                    .append(System.lineSeparator());
+
+            for (Map.Entry<String, Long> entry : samples.getTopFrames(DEFAULT_TOP_FRAMES)) {
+                sb.append("    ").append(entry.getValue())
+                        .append("  ").append(entry.getKey())
+                        .append(System.lineSeparator());
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * The samples of one work name.
+     */
+    public static class WorkSamples {
+
+        private final String workName;
+
+        private long sampleCount;
+
+        private long maxElapsedMillis;
+
+        private final Map<String, Long> selfFrames = new HashMap<String, Long>();
+
+        private final Map<String, Long> totalFrames = new HashMap<String, Long>();
+
+        private WorkSamples(String workName) {
+            this.workName = workName;
+        }
+
+        public String getWorkName() {
+            return workName;
+        }
+
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        public long getMaxElapsedMillis() {
+            return maxElapsedMillis;
+        }
+
+        public Map<String, Long> getSelfFrames() {
+            return Collections.unmodifiableMap(selfFrames);
+        }
+
+        public Map<String, Long> getTotalFrames() {
+            return Collections.unmodifiableMap(totalFrames);
+        }
+
+        /**
+         * The frames most often seen on the top of the stack.
+         *
+         * @param limit the max frames to return
+         * @return frames with their sample count, hottest first
+         */
+        public List<Map.Entry<String, Long>> getTopFrames(int limit) {
+            List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(selfFrames.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+                @Override
+                public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                    return Long.compare(o2.getValue(), o1.getValue());
+                }
+            });
+
+            if (entries.size() > limit) {
+                return entries.subList(0, limit);
+            }
+
+            return entries;
+        }
+
+        private void add(long elapsedMillis, StackTraceElement[] stackTrace) {
+            sampleCount++;
+            if (elapsedMillis > maxElapsedMillis) {
+                maxElapsedMillis = elapsedMillis;
+            }
+
+            if (stackTrace.length == 0) {
+                return;
+            }
+
+            increment(selfFrames, stackTrace[0].toString());
+
+            //count recursive frames once per sample
+            Set<String> seen = new HashSet<String>();
+            for (StackTraceElement element : stackTrace) {
+                String frame = element.toString();
+                if (seen.add(frame)) {
+                    increment(totalFrames, frame);
+                }
+            }
+        }
+
+        private WorkSamples copy() {
+            WorkSamples copy = new WorkSamples(workName);
+            copy.sampleCount = sampleCount;
+            copy.maxElapsedMillis = maxElapsedMillis;
+            copy.selfFrames.putAll(selfFrames);
+            copy.totalFrames.putAll(totalFrames);
+            return copy;
+        }
+
+        private static void increment(Map<String, Long> counts, String frame) {
+            Long count = counts.get(frame);
+            counts.put(frame, count == null ? 1L : count + 1);
+        }
+    }
+
+}
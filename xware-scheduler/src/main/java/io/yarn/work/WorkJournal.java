@@ -0,0 +1,635 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import io.yarn.common.i18n.LocalStringsManager;
+import io.yarn.common.nio.DirectBufferCleaner;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append only journal of submitted and completed works, written to memory
+ * mapped segment files.
+ *
+ * Appending only copies the record into the mapped segment, which survives a
+ * JVM crash. {@link #sync(long)} makes records durable against an OS crash
+ * with group commit: one thread forces the segment on behalf of all threads
+ * waiting at that time. A segment is deleted once all works submitted in it
+ * and in the older segments have completed. The oldest segment is compacted
+ * once it is compactLag segments behind the current one: its unfinished
+ * works are appended again and it is deleted, so that a work that never
+ * finishes does not keep the segments after it. Segments are unmapped when
+ * deleted or when the journal is closed.
+ *
+ * Record layout: length (int), type (byte), work id (long), payload, CRC32 of
+ * type, work id and payload (int). The length is written last, so a torn
+ * record reads as the end of the journal.
+ */
+public class WorkJournal implements Closeable {
+
+    private static final Logger _logger = Logger.getLogger(WorkJournal.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(WorkJournal.class);
+
+    public static final byte SUBMITTED = 1;
+
+    public static final byte COMPLETED = 2;
+
+    /**
+     * A work finished with an exception, the payload is the exception as
+     * text. It is not replayed, like a completed work.
+     */
+    public static final byte FAILED = 3;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+
+    private static final int RECORD_TRAILER_SIZE = 4;
+
+    private final File directory;
+
+    private int segmentSize = 64 * 1024 * 1024;
+
+    /**
+     * Segments the oldest one may fall behind the current one before it is
+     * compacted.
+     */
+    private int compactLag = 2;
+
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+    private Segment currentSegment;
+
+    private final AtomicLong nextWorkId = new AtomicLong(1);
+
+    private final Map<Long, Segment> liveWorks = new ConcurrentHashMap<Long, Segment>();
+
+    private boolean opened = false;
+
+    private final Lock appendLock = new ReentrantLock();
+
+    private final Lock syncLock = new ReentrantLock();
+
+    private final Condition syncFinished = syncLock.newCondition();
+
+    private boolean syncing = false;
+    //the segment being forced by a sync, guarded by appendLock
+    private Segment syncingSegment;
+
+    private volatile long syncedPosition = 0;
+
+    private volatile long lastSyncTime = System.nanoTime();
+
+    public WorkJournal(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getCompactLag() {
+        return compactLag;
+    }
+
+    public void setCompactLag(int compactLag) {
+        if (compactLag < 1) {
+            throw new IllegalArgumentException("compactLag must be at least 1: " + compactLag);
+        }
+
+        this.compactLag = compactLag;
+    }
+
+    public long nextWorkId() {
+        return nextWorkId.getAndIncrement();
+    }
+
+    /**
+     * @return the journal position after the last record
+     */
+    public long getPosition() {
+        try {
+            appendLock.lock();
+            return currentSegment != null ? currentSegment.getPosition() : syncedPosition;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public long getSyncedPosition() {
+        return syncedPosition;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the last sync
+     */
+    public long getLastSyncTime() {
+        return lastSyncTime;
+    }
+
+    /**
+     * Open the journal for appending.
+     *
+     * The unfinished works found in the existing segments are rewritten to a
+     * new segment, then the old segments are deleted.
+     *
+     * @return the unfinished works in submission order
+     * @throws IOException if the journal could not be read or written
+     */
+    public List<Entry> open() throws IOException {
+        try {
+            appendLock.lock();
+
+            if (opened) {
+                throw new IllegalStateException("Journal " + directory + " is already opened!");
+            }
+
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create journal directory " + directory);
+            }
+
+            File[] oldFiles = listSegmentFiles();
+            Map<Long, byte[]> unfinished = new LinkedHashMap<Long, byte[]>();
+            long maxSegmentId = 0;
+            long maxWorkId = 0;
+            for (File file : oldFiles) {
+                maxSegmentId = Math.max(maxSegmentId, parseSegmentId(file));
+                maxWorkId = Math.max(maxWorkId, replaySegment(file, unfinished));
+            }
+            nextWorkId.set(maxWorkId + 1);
+
+            currentSegment = new Segment(maxSegmentId + 1);
+            segments.add(currentSegment);
+            opened = true;
+
+            List<Entry> entries = new ArrayList<Entry>(unfinished.size());
+            for (Map.Entry<Long, byte[]> entry : unfinished.entrySet()) {
+                appendInternal(SUBMITTED, entry.getKey(), entry.getValue());
+                entries.add(new Entry(entry.getKey(), entry.getValue()));
+            }
+            currentSegment.buffer.force();
+            syncedPosition = currentSegment.getPosition();
+
+            for (File file : oldFiles) {
+                if (!file.delete()) {
+                    _logger.log(Level.WARNING, strings.get("work.journal.delete.failed", file));
+                }
+            }
+
+            return entries;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public long appendSubmitted(long workId, byte[] payload) throws IOException {
+        return append(SUBMITTED, workId, payload);
+    }
+
+    public long appendCompleted(long workId) throws IOException {
+        long position = append(COMPLETED, workId, new byte[0]);
+        releaseSegments();
+        return position;
+    }
+
+    public long appendFailed(long workId, String failure) throws IOException {
+        long position = append(FAILED, workId, failure.getBytes(StandardCharsets.UTF_8));
+        releaseSegments();
+        return position;
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param type the record type
+     * @param workId the work id
+     * @param payload the payload
+     * @return the journal position after the record, to pass to
+     * {@link #sync(long)}
+     * @throws IOException if a new segment could not be created
+     */
+    public long append(byte type, long workId, byte[] payload) throws IOException {
+        try {
+            appendLock.lock();
+
+            if (!opened) {
+                throw new IllegalStateException("Journal " + directory + " is not opened!");
+            }
+
+            return appendInternal(type, workId, payload);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private long appendInternal(byte type, long workId, byte[] payload) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + payload.length + RECORD_TRAILER_SIZE;
+        //keep room for the zero length marking the end of segment
+        if (recordSize + 4 > segmentSize) {
+            throw new IllegalArgumentException("Work record of " + recordSize
+                    + " bytes exceeds journal segment size " + segmentSize);
+        }
+
+        Segment segment = currentSegment;
+        if (segment.buffer.remaining() < recordSize + 4) {
+            segment = rollSegment();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        for (int i = 56; i >= 0; i -= 8) {
+            crc.update((int) (workId >>> i));
+        }
+        crc.update(payload, 0, payload.length);
+
+        MappedByteBuffer buffer = segment.buffer;
+        int begin = buffer.position();
+        buffer.position(begin + 4);
+        buffer.put(type);
+        buffer.putLong(workId);
+        buffer.put(payload);
+        buffer.putInt((int) crc.getValue());
+        buffer.putInt(begin, payload.length);
+
+        if (type == SUBMITTED) {
+            segment.liveWorks.incrementAndGet();
+            liveWorks.put(workId, segment);
+        } else if (type == COMPLETED || type == FAILED) {
+            Segment submitted = liveWorks.remove(workId);
+            if (submitted != null) {
+                submitted.liveWorks.decrementAndGet();
+            }
+        }
+
+        return segment.getPosition();
+    }
+
+    private Segment rollSegment() throws IOException {
+        Segment old = currentSegment;
+        old.buffer.force();
+
+        currentSegment = new Segment(old.segmentId + 1);
+        segments.add(currentSegment);
+        return currentSegment;
+    }
+
+    /**
+     * Wait until the journal is durable up to the position. Concurrent
+     * callers are covered by a single force of the segment.
+     *
+     * @param position the position returned by an append
+     */
+    public void sync(long position) {
+        if (position <= syncedPosition) {
+            return;
+        }
+
+        try {
+            syncLock.lock();
+
+            while (position > syncedPosition) {
+                if (syncing) {
+                    syncFinished.awaitUninterruptibly();
+                    continue;
+                }
+
+                syncing = true;
+                Segment segment;
+                long target;
+                syncLock.unlock();
+                try {
+                    try {
+                        appendLock.lock();
+                        segment = currentSegment;
+                        target = segment != null ? segment.getPosition() : Long.MAX_VALUE;
+                        //keep it mapped while forcing even if it rolls
+                        syncingSegment = segment;
+                    } finally {
+                        appendLock.unlock();
+                    }
+
+                    //segments before the current one were forced when rolled,
+                    //a closed journal forced all its segments
+                    if (segment != null) {
+                        segment.buffer.force();
+                    }
+                } finally {
+                    try {
+                        appendLock.lock();
+                        syncingSegment = null;
+                    } finally {
+                        appendLock.unlock();
+                    }
+                    syncLock.lock();
+                    syncing = false;
+                    syncFinished.signalAll();
+                }
+
+                if (target > syncedPosition) {
+                    syncedPosition = target;
+                }
+                lastSyncTime = System.nanoTime();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Delete the oldest segments having no unfinished works, compacting the
+     * oldest one first if it is compactLag segments behind.
+     */
+    private void releaseSegments() {
+        try {
+            appendLock.lock();
+
+            deleteReleasedSegments();
+            if (opened && segments.size() > compactLag && segments.getFirst() != syncingSegment) {
+                Segment oldest = segments.getFirst();
+                try {
+                    compactSegment(oldest);
+                } catch (IOException ioEx) {
+                    _logger.log(Level.WARNING, strings.get("work.journal.compact.failed", oldest.file), ioEx);
+                }
+                deleteReleasedSegments();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Called with the append lock held.
+     */
+    private void deleteReleasedSegments() {
+        Iterator<Segment> iterator = segments.iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment == currentSegment || segment == syncingSegment
+                    || segment.liveWorks.get() > 0) {
+                break;
+            }
+
+            iterator.remove();
+            segment.delete();
+        }
+    }
+
+    /**
+     * Append the unfinished works of the segment again, forced before the
+     * segment is deleted, so that a replay finds them in the newer segments.
+     * Called with the append lock held.
+     */
+    private void compactSegment(Segment segment) throws IOException {
+        ByteBuffer records = segment.buffer.duplicate();
+        records.limit(segment.buffer.position());
+        records.position(0);
+        while (records.remaining() >= RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE) {
+            int length = records.getInt();
+            byte type = records.get();
+            long workId = records.getLong();
+            if (type != SUBMITTED || liveWorks.get(workId) != segment) {
+                records.position(records.position() + length + RECORD_TRAILER_SIZE);
+                continue;
+            }
+
+            byte[] payload = new byte[length];
+            records.get(payload);
+            records.getInt();
+            appendInternal(SUBMITTED, workId, payload);
+            segment.liveWorks.decrementAndGet();
+        }
+
+        currentSegment.buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<Segment> closedSegments;
+        try {
+            appendLock.lock();
+
+            if (!opened) {
+                return;
+            }
+
+            opened = false;
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+            closedSegments = new ArrayList<Segment>(segments);
+            segments.clear();
+            currentSegment = null;
+            liveWorks.clear();
+        } finally {
+            appendLock.unlock();
+        }
+
+        //a sync in progress may still force the last segment
+        try {
+            syncLock.lock();
+            while (syncing) {
+                syncFinished.awaitUninterruptibly();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+
+        for (Segment segment : closedSegments) {
+            segment.unmap();
+        }
+    }
+
+    private File[] listSegmentFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+
+        List<File> segmentFiles = new ArrayList<File>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                segmentFiles.add(file);
+            }
+        }
+
+        File[] result = segmentFiles.toArray(new File[segmentFiles.size()]);
+        //segment ids are zero padded, so the name order is the segment order
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static long parseSegmentId(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private File segmentFile(long segmentId) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+
+    private long replaySegment(File file, Map<Long, byte[]> unfinished) throws IOException {
+        long maxWorkId = 0;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE) {
+                int begin = buffer.position();
+                int length = buffer.getInt();
+                if (length < 0) {
+                    break;
+                }
+
+                if (length == 0 && buffer.get(begin + 4) == 0) {
+                    //end of segment
+                    break;
+                }
+
+                if (buffer.remaining() < 1 + 8 + length + RECORD_TRAILER_SIZE) {
+                    break;
+                }
+
+                byte type = buffer.get();
+                long workId = buffer.getLong();
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                int checksum = buffer.getInt();
+
+                CRC32 crc = new CRC32();
+                crc.update(type);
+                for (int i = 56; i >= 0; i -= 8) {
+                    crc.update((int) (workId >>> i));
+                }
+                crc.update(payload, 0, payload.length);
+                if ((int) crc.getValue() != checksum) {
+                    _logger.log(Level.WARNING, strings.get("work.journal.corrupted", file, begin));
+                    break;
+                }
+
+                maxWorkId = Math.max(maxWorkId, workId);
+                if (type == SUBMITTED) {
+                    unfinished.put(workId, payload);
+                } else if (type == COMPLETED || type == FAILED) {
+                    unfinished.remove(workId);
+                }
+            }
+            DirectBufferCleaner.clean(buffer);
+        } finally {
+            raf.close();
+        }
+
+        return maxWorkId;
+    }
+
+    /**
+     * An unfinished work found while opening the journal.
+     */
+    public static class Entry {
+
+        private final long workId;
+
+        private final byte[] payload;
+
+        private Entry(long workId, byte[] payload) {
+            this.workId = workId;
+            this.payload = payload;
+        }
+
+        public long getWorkId() {
+            return workId;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    private class Segment {
+
+        private final long segmentId;
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        private final AtomicInteger liveWorks = new AtomicInteger();
+
+        private Segment(long segmentId) throws IOException {
+            this.segmentId = segmentId;
+            this.file = segmentFile(segmentId);
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            } finally {
+                //the mapping stays valid after the channel is closed
+                raf.close();
+            }
+        }
+
+        private long getPosition() {
+            return segmentId * segmentSize + buffer.position();
+        }
+
+        private void unmap() {
+            DirectBufferCleaner.clean(buffer);
+        }
+
+        private void delete() {
+            unmap();
+            if (!file.delete()) {
+                _logger.log(Level.WARNING, strings.get("work.journal.delete.failed", file));
+            }
+        }
+    }
+
+}
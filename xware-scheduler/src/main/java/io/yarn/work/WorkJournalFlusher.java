@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+/**
+ * Forces a {@link WorkJournal} periodically, so that the records appended
+ * since the last force become durable against an OS crash within about one
+ * interval even when no more works are submitted.
+ *
+ * The flusher is a repeatable {@link TimerWork}, add it to a
+ * {@link TimerWorkScheduler} to run it.
+ */
+public class WorkJournalFlusher extends TimerWork {
+
+    private final WorkJournal workJournal;
+
+    public WorkJournalFlusher(WorkJournal workJournal) {
+        super(null);
+        this.workJournal = workJournal;
+        super.setScheduleOnlyOnce(false);
+        super.setScheduleInterval(100);
+        super.setName("work-journal-flusher");
+    }
+
+    public WorkJournal getWorkJournal() {
+        return workJournal;
+    }
+
+    @Override
+    protected void doTimerWork() {
+        long position = workJournal.getPosition();
+        if (position > workJournal.getSyncedPosition()) {
+            workJournal.sync(position);
+        }
+    }
+
+}
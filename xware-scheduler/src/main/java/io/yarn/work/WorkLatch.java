@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A count down latch whose waiters are works rather than threads.
+ *
+ * A continuation given to {@link #awaitThen(Work, WorkScheduler)} is parked
+ * on the latch and added to its scheduler once the count reaches zero, no
+ * thread is held while waiting.
+ */
+public class WorkLatch {
+
+    private long count;
+
+    private final List<ParkedWork> parkedWorks = new LinkedList<ParkedWork>();
+
+    public WorkLatch(long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
+
+        this.count = count;
+    }
+
+    /**
+     * A latch counted down as each of the works finishes or is cancelled. A
+     * work given more than once is counted once.
+     *
+     * @param works the works to wait for
+     * @return the latch
+     */
+    public static WorkLatch whenFinished(Work... works) {
+        final Set<Work> pendingWorks = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<Work, Boolean>()));
+        Collections.addAll(pendingWorks, works);
+        //copied before any listener can remove from it
+        final List<Work> distinctWorks = new LinkedList<Work>(pendingWorks);
+        final WorkLatch latch = new WorkLatch(distinctWorks.size());
+
+        WorkListener workListener = new WorkListener() {
+
+            @Override
+            public void workStarted(Work work) {
+            }
+
+            @Override
+            public void workAborted(Work work, Throwable t) {
+            }
+
+            @Override
+            public void workCancelled(Work work, Throwable t) {
+                workDone(work);
+            }
+
+            @Override
+            public void workFinished(Work work, Throwable t) {
+                workDone(work);
+            }
+
+            private void workDone(Work work) {
+                if (pendingWorks.remove(work)) {
+                    work.removeWorkListener(this);
+                    latch.countDown();
+                }
+            }
+        };
+
+        for (Work work : distinctWorks) {
+            work.addWorkListener(workListener);
+            //finished before the listener was added
+            if (work.isFinished() || work.isCancelled()) {
+                workListener.workFinished(work, null);
+            }
+        }
+
+        return latch;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized int getParkedWorks() {
+        return parkedWorks.size();
+    }
+
+    public void countDown() {
+        List<ParkedWork> resumed;
+        synchronized (this) {
+            if (count == 0 || --count > 0) {
+                return;
+            }
+
+            resumed = new LinkedList<ParkedWork>(parkedWorks);
+            parkedWorks.clear();
+        }
+
+        for (ParkedWork parkedWork : resumed) {
+            parkedWork.resume();
+        }
+    }
+
+    /**
+     * Add the continuation to the scheduler once the count reaches zero, at
+     * once if it already has.
+     *
+     * @param continuation the work to run after the latch opens
+     * @param workScheduler the scheduler to add it to
+     */
+    public void awaitThen(Work continuation, WorkScheduler workScheduler) {
+        ParkedWork parkedWork = new ParkedWork(continuation, workScheduler);
+        synchronized (this) {
+            if (count > 0) {
+                parkedWorks.add(parkedWork);
+                return;
+            }
+        }
+
+        parkedWork.resume();
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A staged pipeline: each item submitted goes through the stages in order,
+ * each stage having its own bounded queue and threads.
+ *
+ * Add the stages, then {@link #start()} the pipeline. A
+ * {@link PipelineController} may be scheduled to move threads between the
+ * stages according to their load.
+ */
+public class WorkPipeline {
+
+    private final String name;
+
+    private final List<PipelineStage> stages = new ArrayList<PipelineStage>();
+
+    private boolean started = false;
+
+    private volatile PipelineStage firstStage;
+
+    public WorkPipeline(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized PipelineStage addStage(String stageName, StageHandler stageHandler, int threads, int queueCapacity) {
+        if (started) {
+            throw new IllegalStateException("Could not add stage " + stageName + " to started pipeline " + name + "!");
+        }
+
+        PipelineStage stage = new PipelineStage(name + "-" + stageName, stageHandler, threads, queueCapacity);
+        if (!stages.isEmpty()) {
+            stages.get(stages.size() - 1).setNextStage(stage);
+        }
+        stages.add(stage);
+
+        return stage;
+    }
+
+    public synchronized List<PipelineStage> getStages() {
+        return Collections.unmodifiableList(new ArrayList<PipelineStage>(stages));
+    }
+
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline " + name + " has no stage!");
+        }
+
+        started = true;
+        for (PipelineStage stage : stages) {
+            stage.start();
+        }
+        firstStage = stages.get(0);
+    }
+
+    public synchronized void stop() {
+        for (PipelineStage stage : stages) {
+            stage.stop();
+        }
+    }
+
+    /**
+     * Submit an item to the first stage, waiting while its queue is full.
+     *
+     * @param item the item
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(Object item) throws InterruptedException {
+        firstStage().submit(item);
+    }
+
+    /**
+     * Submit an item to the first stage, waiting at most the timeout while its
+     * queue is full.
+     *
+     * @param item the item
+     * @param timeout the timeout in milliseconds
+     * @return false if the first stage was still full after the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean offer(Object item, long timeout) throws InterruptedException {
+        return firstStage().offer(item, timeout);
+    }
+
+    private PipelineStage firstStage() {
+        PipelineStage stage = firstStage;
+        if (stage == null) {
+            throw new IllegalStateException("Pipeline " + name + " is not started!");
+        }
+
+        return stage;
+    }
+
+}
@@ -16,12 +16,19 @@
  */
 package io.yarn.work;
 
+import io.yarn.common.i18n.LocalStringsManager;
+import java.io.IOException;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
@@ -29,6 +36,10 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public abstract class WorkSchedulerBase extends WorkBase implements WorkScheduler, WorkListener {
 
+    private static final Logger _logger = Logger.getLogger(WorkSchedulerBase.class.getName());
+
+    private static final LocalStringsManager strings = LocalStringsManager.getManager(WorkSchedulerBase.class);
+
     /**
      * Default 3 seconds.
      */
@@ -48,6 +59,47 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
 
     private final Condition checkWorkReady = schedulerLock.newCondition();
 
+    /**
+     * Spillable works added while the work queue holds maxInMemoryWorks are
+     * spilled to this queue, null to keep all works in memory.
+     */
+    private WorkSpillQueue spillQueue;
+
+    private int maxInMemoryWorks = 100000;
+
+    /**
+     * Whether to watch the queue sojourn time and switch to LIFO dispatch,
+     * shedding late works, under overload.
+     */
+    private boolean overloadControl = false;
+
+    /**
+     * Default 5 milliseconds.
+     */
+    private long targetSojournTime = 5;
+
+    /**
+     * Default 100 milliseconds.
+     */
+    private long overloadInterval = 100;
+
+    /**
+     * Enqueue nano times of the queued works, kept while overload control is
+     * on.
+     */
+    private final Map<Work, Long> enqueueTimes = new IdentityHashMap<Work, Long>();
+
+    /**
+     * Whether the sojourn time is above the target since firstAboveTargetTime.
+     */
+    private boolean aboveTarget = false;
+
+    private long firstAboveTargetTime;
+
+    private volatile boolean overloaded = false;
+
+    private volatile long shedWorks = 0;
+
     public boolean isScheduleBySequence() {
         return scheduleBySequence;
     }
@@ -64,6 +116,98 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
         this.checkWorkInterval = checkWorkInterval;
     }
     
+    public WorkSpillQueue getSpillQueue() {
+        return spillQueue;
+    }
+
+    /**
+     * Set the queue the {@link SpillableWork}s over maxInMemoryWorks are
+     * spilled to. Spilled works are dropped from memory, and copies read back
+     * from the queue are scheduled instead.
+     *
+     * @param spillQueue the spill queue, null to disable spilling
+     */
+    public void setSpillQueue(WorkSpillQueue spillQueue) {
+        try {
+            schedulerLock.lock();
+            if (this.spillQueue != null && !this.spillQueue.isEmpty()) {
+                throw new IllegalStateException("Spill queue can not be replaced while works are spilled!");
+            }
+            this.spillQueue = spillQueue;
+        } finally {
+            schedulerLock.unlock();
+        }
+    }
+
+    public int getMaxInMemoryWorks() {
+        return maxInMemoryWorks;
+    }
+
+    public void setMaxInMemoryWorks(int maxInMemoryWorks) {
+        this.maxInMemoryWorks = maxInMemoryWorks;
+    }
+
+    public int getSpilledWorkSize() {
+        try {
+            schedulerLock.lock();
+            return spillQueue != null ? spillQueue.size() : 0;
+        } finally {
+            schedulerLock.unlock();
+        }
+    }
+
+    public boolean isOverloadControl() {
+        return overloadControl;
+    }
+
+    /**
+     * Switch overload control on or off. While on, the scheduler enters
+     * overload once the sojourn time of the dispatched works has stayed above
+     * targetSojournTime for overloadInterval. Under overload the newest works
+     * are dispatched first and works queued longer than overloadInterval are
+     * shed: aborted, notified through workAborted with a
+     * {@link WorkRejectException}, and cancelled. The scheduler leaves
+     * overload once the queue drains.
+     *
+     * @param overloadControl true to switch overload control on
+     */
+    public void setOverloadControl(boolean overloadControl) {
+        try {
+            schedulerLock.lock();
+            this.overloadControl = overloadControl;
+            if (!overloadControl) {
+                enqueueTimes.clear();
+                leaveOverload();
+            }
+        } finally {
+            schedulerLock.unlock();
+        }
+    }
+
+    public long getTargetSojournTime() {
+        return targetSojournTime;
+    }
+
+    public void setTargetSojournTime(long targetSojournTime) {
+        this.targetSojournTime = targetSojournTime;
+    }
+
+    public long getOverloadInterval() {
+        return overloadInterval;
+    }
+
+    public void setOverloadInterval(long overloadInterval) {
+        this.overloadInterval = overloadInterval;
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    public long getShedWorks() {
+        return shedWorks;
+    }
+
     @Override
     public boolean allowAddingWork(Work work) {
         if (prohibitAddingWork) {
@@ -82,6 +226,27 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
         prohibitAddingWork = true;
     }
 
+    /**
+     * Cancel the scheduler and wake the threads waiting for a work, so that
+     * they see the cancellation and exit.
+     */
+    @Override
+    public boolean cancel() {
+        if (!super.cancel()) {
+            return false;
+        }
+
+        try {
+            schedulerLock.lock();
+            workCoordinator.signalAll();
+            checkWorkReady.signalAll();
+        } finally {
+            schedulerLock.unlock();
+        }
+
+        return true;
+    }
+
     @Override
     public boolean addWork(Work work) {
         boolean workAdded = false;
@@ -89,10 +254,14 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
             schedulerLock.lock();
 
             if (allowAddingWork(work)) {
-                work.addWorkListener(this);
-                workQueue.offer(work);
+                if (!spillWork(work)) {
+                    work.addWorkListener(this);
+                    workQueue.offer(work);
+                    workEnqueued(work);
+                }
                 workCoordinator.signal();
                 workAdded = true;
+                WorkFlightRecorder.getDefault().record(WorkFlightRecorder.ENQUEUED, work);
             }
         } finally {
             schedulerLock.unlock();
@@ -101,6 +270,56 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
         return workAdded;
     }
 
+    /**
+     * Spill the work if the work queue is over its budget, or if older works
+     * are already spilled so that the order is kept. Called with the scheduler
+     * lock held.
+     */
+    private boolean spillWork(Work work) {
+        if (spillQueue == null || !(work instanceof SpillableWork)) {
+            return false;
+        }
+
+        if (workQueue.size() < maxInMemoryWorks && spillQueue.isEmpty()) {
+            return false;
+        }
+
+        try {
+            spillQueue.offer((SpillableWork) work);
+        } catch (IOException ioEx) {
+            _logger.log(Level.WARNING, strings.get("work.spill.failed", work.getName()), ioEx);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Read spilled works back once the work queue has drained to half its
+     * budget. Called with the scheduler lock held.
+     */
+    private void pageInWorks() {
+        if (spillQueue == null || spillQueue.isEmpty() || workQueue.size() > maxInMemoryWorks / 2) {
+            return;
+        }
+
+        while (workQueue.size() < maxInMemoryWorks && !spillQueue.isEmpty()) {
+            try {
+                Work work = (Work) spillQueue.poll();
+                work.addWorkListener(this);
+                workQueue.offer(work);
+                workEnqueued(work);
+            } catch (ClassNotFoundException | ClassCastException ex) {
+                _logger.log(Level.SEVERE, strings.get("work.page.in.failed"), ex);
+            } catch (IOException ioEx) {
+                //the rest of the spill file can not be trusted
+                _logger.log(Level.SEVERE, strings.get("work.spill.queue.broken", spillQueue.size()), ioEx);
+                spillQueue = null;
+                return;
+            }
+        }
+    }
+
     @Override
     public void scheduleWorks() {
         while (hasWork()) {
@@ -115,7 +334,7 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
     public boolean hasWork() {
         try {
             schedulerLock.lock();
-            if (!isCancelled() && !workQueue.isEmpty()) {
+            if (!isCancelled() && (!workQueue.isEmpty() || getSpilledWorkSize() > 0)) {
                 return true;
             }
         } finally {
@@ -125,9 +344,34 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
         return false;
     }
 
+    /**
+     * Whether the calling thread, woken while waiting for a work, should stop
+     * waiting: pollWork returns null to it. Called with the scheduler lock
+     * held.
+     *
+     * @return false by default
+     */
+    protected boolean releaseIdleThread() {
+        return false;
+    }
+
+    /**
+     * Wake the threads waiting for a work, so that they check
+     * {@link #releaseIdleThread()}.
+     */
+    protected void wakeIdleThreads() {
+        try {
+            schedulerLock.lock();
+            workCoordinator.signalAll();
+        } finally {
+            schedulerLock.unlock();
+        }
+    }
+
     @Override
     public Work pollWork() {
 
+        List<Work> lateWorks = null;
         try {
             schedulerLock.lock();
 
@@ -135,26 +379,35 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
             while (!isCancelled()) {
                 if (headerWork != null) {
                     if (headerWork.isCancelled()) {
+                        workQueue.remove(headerWork);
+                        enqueueTimes.remove(headerWork);
                         headerWork = null;
+                        continue;
                     }
 
                     if (readyToScheduleWork(headerWork)) {
+                        workQueue.remove(headerWork);
+                        workDequeued(headerWork);
                         return headerWork;
                     }
                     
                     waitCheckPeriod();
                 } else {
 
-                    Iterator<Work> iterator = workQueue.iterator();
+                    pageInWorks();
+                    lateWorks = shedLateWorks(lateWorks);
+                    Iterator<Work> iterator = overloaded ? workQueue.descendingIterator() : workQueue.iterator();
                     while (iterator.hasNext()) {
                         Work work = iterator.next();
                         if (work.isCancelled()) {
                             iterator.remove();
+                            enqueueTimes.remove(work);
                             continue;
                         }
 
                         if (readyToScheduleWork(work)) {
                             iterator.remove();
+                            workDequeued(work);
                             return work;
                         }
 
@@ -164,15 +417,26 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
                         }
                     }
 
+                    if (lateWorks != null) {
+                        abortLateWorksUnlocked(lateWorks);
+                        lateWorks = null;
+                        continue;
+                    }
+
                     try {
                         workCoordinator.await();
                     } catch (InterruptedException inEx) {
                     }
+
+                    if (releaseIdleThread()) {
+                        return null;
+                    }
                 }
             }
 
         } finally {
             schedulerLock.unlock();
+            abortLateWorks(lateWorks);
         }
 
         return null;
@@ -181,18 +445,21 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
     @Override
     public Work pollWork(long timeout) throws InterruptedException {
 
-        long endTime = -1;
+        long endTime = 0;
+        boolean deadlineSet = false;
 
+        List<Work> lateWorks = null;
         try {
             schedulerLock.lockInterruptibly();
 
             Work headerWork = null;
             while (!isCancelled()) {
 
-                if (endTime == -1 && timeout > 0) {
-                    endTime = System.currentTimeMillis() + timeout;
+                if (!deadlineSet && timeout > 0) {
+                    endTime = getTimeSource().currentTimeMillis() + timeout;
+                    deadlineSet = true;
                 } else {
-                    if (System.currentTimeMillis() > endTime) {
+                    if (!deadlineSet || getTimeSource().currentTimeMillis() - endTime > 0) {
                         //timeout occured
                         return null;
                     }
@@ -200,26 +467,35 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
 
                 if (headerWork != null) {
                     if (headerWork.isCancelled()) {
+                        workQueue.remove(headerWork);
+                        enqueueTimes.remove(headerWork);
                         headerWork = null;
+                        continue;
                     }
 
                     if (readyToScheduleWork(headerWork)) {
+                        workQueue.remove(headerWork);
+                        workDequeued(headerWork);
                         return headerWork;
                     }
 
                     waitCheckPeriod();
                 } else {
 
-                    Iterator<Work> iterator = workQueue.iterator();
+                    pageInWorks();
+                    lateWorks = shedLateWorks(lateWorks);
+                    Iterator<Work> iterator = overloaded ? workQueue.descendingIterator() : workQueue.iterator();
                     while (iterator.hasNext()) {
                         Work work = iterator.next();
                         if (work.isCancelled()) {
                             iterator.remove();
+                            enqueueTimes.remove(work);
                             continue;
                         }
 
                         if (readyToScheduleWork(work)) {
                             iterator.remove();
+                            workDequeued(work);
                             return work;
                         }
 
@@ -229,20 +505,168 @@ public abstract class WorkSchedulerBase extends WorkBase implements WorkSchedule
                         }
                     }
 
+                    if (lateWorks != null) {
+                        abortLateWorksUnlocked(lateWorks);
+                        lateWorks = null;
+                        continue;
+                    }
+
+                    long remaining = endTime - getTimeSource().currentTimeMillis();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+
                     try {
-                        workCoordinator.await();
+                        workCoordinator.await(remaining, TimeUnit.MILLISECONDS);
                     } catch (InterruptedException inEx) {
                     }
+
+                    if (releaseIdleThread()) {
+                        return null;
+                    }
                 }
             }
 
         } finally {
             schedulerLock.unlock();
+            abortLateWorks(lateWorks);
         }
 
         return null;
     }
 
+    /**
+     * Called with the scheduler lock held.
+     */
+    private void workEnqueued(Work work) {
+        if (overloadControl) {
+            enqueueTimes.put(work, getTimeSource().nanoTime());
+        }
+    }
+
+    /**
+     * Track the sojourn time of the dispatched work: entering overload once it
+     * stays above the target for an interval, leaving once the queue drains.
+     * Called with the scheduler lock held.
+     */
+    private void workDequeued(Work work) {
+        Long enqueueTime = enqueueTimes.remove(work);
+        if (!overloadControl || enqueueTime == null) {
+            return;
+        }
+
+        long now = getTimeSource().nanoTime();
+        if (workQueue.isEmpty()) {
+            leaveOverload();
+            return;
+        }
+
+        long sojournTime = now - enqueueTime;
+        if (sojournTime < TimeUnit.MILLISECONDS.toNanos(targetSojournTime)) {
+            aboveTarget = false;
+        } else if (!aboveTarget) {
+            aboveTarget = true;
+            firstAboveTargetTime = now + TimeUnit.MILLISECONDS.toNanos(overloadInterval);
+        } else if (!overloaded && now - firstAboveTargetTime >= 0) {
+            overloaded = true;
+            if (_logger.isLoggable(Level.FINE)) {
+                _logger.log(Level.FINE, strings.get("work.overload.entered", getName(), workQueue.size()));
+            }
+        }
+    }
+
+    private void leaveOverload() {
+        aboveTarget = false;
+        if (overloaded) {
+            overloaded = false;
+            if (_logger.isLoggable(Level.FINE)) {
+                _logger.log(Level.FINE, strings.get("work.overload.left", getName(), shedWorks));
+            }
+        }
+    }
+
+    /**
+     * Remove the works queued longer than the overload interval while
+     * overloaded, they are aborted once the scheduler lock is released.
+     * Called with the scheduler lock held.
+     *
+     * @param lateWorks the late works removed so far, may be null
+     * @return the late works removed, may be null
+     */
+    private List<Work> shedLateWorks(List<Work> lateWorks) {
+        if (!overloaded) {
+            return lateWorks;
+        }
+
+        long deadline = getTimeSource().nanoTime() - TimeUnit.MILLISECONDS.toNanos(overloadInterval);
+        Iterator<Work> iterator = workQueue.iterator();
+        while (iterator.hasNext()) {
+            Work work = iterator.next();
+            Long enqueueTime = enqueueTimes.get(work);
+            if (enqueueTime == null) {
+                continue;
+            }
+
+            //works are queued in order, the rest are not late yet
+            if (enqueueTime - deadline > 0) {
+                break;
+            }
+
+            iterator.remove();
+            enqueueTimes.remove(work);
+            if (lateWorks == null) {
+                lateWorks = new LinkedList<Work>();
+            }
+            lateWorks.add(work);
+            shedWorks++;
+        }
+
+        if (workQueue.isEmpty()) {
+            leaveOverload();
+        }
+
+        return lateWorks;
+    }
+
+    /**
+     * Abort the late works before waiting for a work, releasing the scheduler
+     * lock meanwhile. Called with the scheduler lock held.
+     */
+    private void abortLateWorksUnlocked(List<Work> lateWorks) {
+        schedulerLock.unlock();
+        try {
+            abortLateWorks(lateWorks);
+        } finally {
+            schedulerLock.lock();
+        }
+    }
+
+    /**
+     * Called outside the scheduler lock.
+     */
+    private void abortLateWorks(List<Work> lateWorks) {
+        if (lateWorks == null) {
+            return;
+        }
+
+        for (Work work : lateWorks) {
+            try {
+                work.abortWork();
+                if (work instanceof WorkBase) {
+                    WorkEventNotification notification = ((WorkBase) work).getWorkEventNotification();
+                    if (notification != null) {
+                        notification.workAborted(work, new WorkRejectException("Work " + work.getName()
+                                + " was shed after queued longer than " + overloadInterval + " ms under overload!"));
+                    }
+                }
+            } catch (Throwable t) {
+                _logger.log(Level.WARNING, strings.get("work.shed.abort.failed", work.getName()), t);
+            }
+
+            work.cancel();
+        }
+    }
+
     private void waitCheckPeriod() {
         try {
             long interval = getScheduleWorkInterval();
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A counting semaphore whose waiters are works rather than threads.
+ *
+ * A work given to {@link #submit(Work, WorkScheduler)} is added to its
+ * scheduler once it holds a permit, and gives the permit back when it
+ * finishes or is cancelled. Works waiting for a permit are parked in FIFO
+ * order and no thread is held while they wait.
+ */
+public class WorkSemaphore {
+
+    private int permits;
+
+    private final LinkedList<PermitWork> parkedWorks = new LinkedList<PermitWork>();
+
+    public WorkSemaphore(int permits) {
+        this.permits = permits;
+    }
+
+    public synchronized int availablePermits() {
+        return permits;
+    }
+
+    public synchronized int getParkedWorks() {
+        return parkedWorks.size();
+    }
+
+    /**
+     * Take a permit if one is available and no work is parked.
+     *
+     * @return true if a permit was taken
+     */
+    public synchronized boolean tryAcquire() {
+        if (permits > 0 && parkedWorks.isEmpty()) {
+            permits--;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Give a permit back, handing it to the first parked work if any.
+     */
+    public void release() {
+        PermitWork next;
+        synchronized (this) {
+            next = parkedWorks.poll();
+            if (next == null) {
+                permits++;
+                return;
+            }
+        }
+
+        next.resumeWithPermit();
+    }
+
+    /**
+     * Run the work on the scheduler holding a permit, parking it until one is
+     * available. The permit is given back when the work finishes or is
+     * cancelled.
+     *
+     * @param work the work
+     * @param workScheduler the scheduler to add it to
+     */
+    public void submit(Work work, WorkScheduler workScheduler) {
+        PermitWork permitWork = new PermitWork(work, workScheduler);
+        work.addWorkListener(permitWork);
+        synchronized (this) {
+            if (permits <= 0 || !parkedWorks.isEmpty()) {
+                parkedWorks.add(permitWork);
+                return;
+            }
+
+            permits--;
+        }
+
+        permitWork.resumeWithPermit();
+    }
+
+    /**
+     * A work holding or waiting for a permit, giving the permit back once.
+     */
+    private class PermitWork extends ParkedWork implements WorkListener {
+
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        PermitWork(Work work, WorkScheduler workScheduler) {
+            super(work, workScheduler);
+        }
+
+        void resumeWithPermit() {
+            if (!resume()) {
+                //neither added nor cancelled, no event will give the permit back
+                workDone(getWork());
+            }
+        }
+
+        @Override
+        public void workStarted(Work work) {
+        }
+
+        @Override
+        public void workAborted(Work work, Throwable t) {
+        }
+
+        @Override
+        public void workCancelled(Work work, Throwable t) {
+            workDone(work);
+        }
+
+        @Override
+        public void workFinished(Work work, Throwable t) {
+            workDone(work);
+        }
+
+        private void workDone(Work work) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+
+            work.removeWorkListener(this);
+            boolean parked;
+            synchronized (WorkSemaphore.this) {
+                parked = parkedWorks.remove(this);
+            }
+
+            //a work cancelled while parked never held a permit
+            if (!parked) {
+                release();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+
+/**
+ * A first in first out queue of serialized {@link SpillableWork}s kept in a
+ * local file.
+ *
+ * Works are appended at the end of the file and read back sequentially.
+ * The file is truncated every time the queue becomes empty.
+ *
+ * Not thread safe, the owning scheduler serializes the access.
+ */
+public class WorkSpillQueue implements Closeable {
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final boolean deleteOnClose;
+
+    private long readPosition = 0;
+
+    private long writePosition = 0;
+
+    private int size = 0;
+
+    /**
+     * Works are read back sequentially, so read ahead in large blocks.
+     */
+    private final byte[] readBuffer = new byte[64 * 1024];
+
+    private long readBufferPosition = 0;
+
+    private int readBufferLength = 0;
+
+    /**
+     * A queue backed by a temporary file, deleted when closed.
+     *
+     * @throws IOException if the file could not be created
+     */
+    public WorkSpillQueue() throws IOException {
+        this(File.createTempFile("work-spill-", ".queue"), true);
+    }
+
+    public WorkSpillQueue(File file, boolean deleteOnClose) throws IOException {
+        this.file = file;
+        this.deleteOnClose = deleteOnClose;
+        this.raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void offer(Serializable work) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        //room for the length
+        bytes.write(0);
+        bytes.write(0);
+        bytes.write(0);
+        bytes.write(0);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(work);
+        } finally {
+            out.close();
+        }
+
+        byte[] record = bytes.toByteArray();
+        int length = record.length - 4;
+        record[0] = (byte) (length >>> 24);
+        record[1] = (byte) (length >>> 16);
+        record[2] = (byte) (length >>> 8);
+        record[3] = (byte) length;
+
+        raf.seek(writePosition);
+        raf.write(record);
+        writePosition += record.length;
+        size++;
+    }
+
+    /**
+     * Read the next work back, as a copy of the work offered.
+     *
+     * @return the next work, or null if the queue is empty
+     * @throws IOException if the work could not be read
+     * @throws ClassNotFoundException if the work class could not be found,
+     * the work is skipped
+     */
+    public Serializable poll() throws IOException, ClassNotFoundException {
+        if (size == 0) {
+            return null;
+        }
+
+        byte[] header = new byte[4];
+        read(header);
+        int length = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16)
+                | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+        byte[] payload = new byte[length];
+        read(payload);
+        size--;
+
+        if (size == 0) {
+            readPosition = 0;
+            writePosition = 0;
+            readBufferLength = 0;
+            raf.setLength(0);
+        }
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+        try {
+            return (Serializable) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void read(byte[] dst) throws IOException {
+        int copied = 0;
+        while (copied < dst.length) {
+            long offset = readPosition - readBufferPosition;
+            if (offset < 0 || offset >= readBufferLength) {
+                raf.seek(readPosition);
+                readBufferPosition = readPosition;
+                readBufferLength = Math.max(0, raf.read(readBuffer));
+                if (readBufferLength == 0) {
+                    throw new IOException("Unexpected end of work spill file " + file);
+                }
+                offset = 0;
+            }
+
+            int count = Math.min(dst.length - copied, readBufferLength - (int) offset);
+            System.arraycopy(readBuffer, (int) offset, dst, copied, count);
+            copied += count;
+            readPosition += count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+        if (deleteOnClose) {
+            file.delete();
+        }
+    }
+
+}
@@ -22,16 +22,67 @@ package io.yarn.work;
  */
 public class WorkThread implements Runnable {
 
+    private static final ThreadLocal<WorkThread> currentWorkThread = new ThreadLocal<WorkThread>();
+
     private final WorkScheduler workScheduler;
 
+    private final boolean compensating;
+
+    private boolean borrowed = false;
+
     private volatile boolean doTask = true;
 
     private Work firstWork;
 
     private Thread thread;
 
+    private volatile Work currentWork;
+
+    private volatile long currentWorkStartTime;
+
     public WorkThread(WorkScheduler workScheduler) {
+        this(workScheduler, false);
+    }
+
+    /*package*/ WorkThread(WorkScheduler workScheduler, boolean compensating) {
         this.workScheduler = workScheduler;
+        this.compensating = compensating;
+    }
+
+    /**
+     * The work thread running the calling thread, or null if the calling
+     * thread is not a work thread.
+     *
+     * @return the current work thread
+     */
+    public static WorkThread currentWorkThread() {
+        return currentWorkThread.get();
+    }
+
+    public WorkScheduler getWorkScheduler() {
+        return workScheduler;
+    }
+
+    /**
+     * Whether this thread was started to compensate a blocked thread.
+     *
+     * @return true if this is a compensating thread
+     */
+    public boolean isCompensating() {
+        return compensating;
+    }
+
+    /**
+     * Whether this thread was borrowed from a {@link WorkThreadGovernor}.
+     *
+     * @return true if this is a borrowed thread
+     */
+    public boolean isBorrowed() {
+        return borrowed;
+    }
+
+    /*package*/ void setBorrowed(boolean borrowed) {
+        this.borrowed = borrowed;
     }
 
     /*package*/ Thread getThread() {
@@ -42,19 +93,73 @@ public class WorkThread implements Runnable {
         this.thread = thread;
     }
 
+    /**
+     * The work executing on this thread, or null if the thread is idle.
+     *
+     * @return the current work
+     */
+    public Work getCurrentWork() {
+        return currentWork;
+    }
+
+    /**
+     * The nano time, read from the scheduler's time source, at which the
+     * current work started.
+     *
+     * @return the start time of the current work
+     */
+    public long getCurrentWorkStartTime() {
+        return currentWorkStartTime;
+    }
+
     @Override
     public void run() {
+        ThreadPoolWorkScheduler threadPool = null;
+        if (workScheduler instanceof ThreadPoolWorkScheduler) {
+            threadPool = (ThreadPoolWorkScheduler) workScheduler;
+        }
+
+        currentWorkThread.set(this);
+        try {
+            while (doTask && !workScheduler.isCancelled()) {
+                Work runWork = firstWork;
+                firstWork = null;
+                if (runWork == null) {
+                    try {
+                        runWork = threadPool != null ? threadPool.takeWork(this) : workScheduler.pollWork();
+                    } catch (InterruptedException inEx) {
+                        continue;
+                    }
+                }
+
+                if (runWork == null) {
+                    if (threadPool != null && threadPool.retireThread(this, true)) {
+                        return;
+                    }
+                    continue;
+                }
+
+                currentWorkStartTime = threadPool != null ? threadPool.getTimeSource().nanoTime() : System.nanoTime();
+                currentWork = runWork;
+                WorkFlightRecorder.getDefault().record(WorkFlightRecorder.STARTED, runWork);
+                try {
+                    runWork.run();
+                } finally {
+                    currentWork = null;
+                    WorkFlightRecorder.getDefault().record(WorkFlightRecorder.FINISHED, runWork);
+                }
 
-        while (doTask) {
-            Work runWork = firstWork;
-            firstWork = null;
-            while ((runWork != null
-                    || (runWork = workScheduler.pollWork()) != null)) {
-                
-                runWork.run();
+                if (threadPool != null && threadPool.retireThread(this, false)) {
+                    return;
+                }
             }
-        }
 
+            if (threadPool != null) {
+                threadPool.removeThread(this);
+            }
+        } finally {
+            currentWorkThread.remove();
+        }
     }
 
     public void terminate() {
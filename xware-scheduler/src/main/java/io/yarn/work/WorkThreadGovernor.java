@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread budget shared by thread pool work schedulers.
+ *
+ * A scheduler given a governor borrows a thread from the budget for every
+ * thread above its min threads, and gives it back when the thread exits. A
+ * scheduler denied a thread is remembered and offered the next thread given
+ * back. While schedulers are waiting, schedulers holding more than their fair
+ * share of the budget exit threads after their current work, and idle ones at
+ * once.
+ *
+ * Threads compensating blocked threads are not counted.
+ *
+ * A scheduler is known to the governor only while it borrows threads or
+ * waits for one: it is forgotten once it gives its last thread back, and
+ * cancelled schedulers are dropped from the waiting ones.
+ */
+public class WorkThreadGovernor {
+
+    private static final WorkThreadGovernor DEFAULT_GOVERNOR = new WorkThreadGovernor(Runtime.getRuntime().availableProcessors());
+
+    private final int budget;
+
+    private final AtomicInteger availableThreads;
+
+    /**
+     * The schedulers holding borrowed threads, updated under its own lock.
+     */
+    private final ConcurrentMap<ThreadPoolWorkScheduler, AtomicInteger> borrowedThreads = new ConcurrentHashMap<ThreadPoolWorkScheduler, AtomicInteger>();
+
+    private final Queue<ThreadPoolWorkScheduler> waitingSchedulers = new ConcurrentLinkedQueue<ThreadPoolWorkScheduler>();
+
+    public WorkThreadGovernor(int budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("budget must be at least 1: " + budget);
+        }
+
+        this.budget = budget;
+        this.availableThreads = new AtomicInteger(budget);
+    }
+
+    /**
+     * The process wide governor, with a budget of the available processors.
+     *
+     * @return the default governor
+     */
+    public static WorkThreadGovernor getDefault() {
+        return DEFAULT_GOVERNOR;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    public int getAvailableThreads() {
+        return availableThreads.get();
+    }
+
+    public int getBorrowedThreads(ThreadPoolWorkScheduler workScheduler) {
+        AtomicInteger borrowed = borrowedThreads.get(workScheduler);
+        return borrowed != null ? borrowed.get() : 0;
+    }
+
+    /**
+     * Borrow a thread for the scheduler.
+     *
+     * @param workScheduler the scheduler
+     * @return false if the budget is used up, the scheduler will be offered
+     * the next thread given back
+     */
+    public boolean tryBorrow(ThreadPoolWorkScheduler workScheduler) {
+        if (workScheduler.isCancelled()) {
+            deregister(workScheduler);
+            return false;
+        }
+
+        for (;;) {
+            int available = availableThreads.get();
+            if (available <= 0) {
+                if (!waitingSchedulers.contains(workScheduler)) {
+                    waitingSchedulers.offer(workScheduler);
+                    requestThreadsBack(workScheduler);
+                }
+
+                //a thread given back before this scheduler was queued
+                if (availableThreads.get() > 0) {
+                    continue;
+                }
+                return false;
+            }
+
+            if (availableThreads.compareAndSet(available, available - 1)) {
+                break;
+            }
+        }
+
+        waitingSchedulers.remove(workScheduler);
+        synchronized (borrowedThreads) {
+            AtomicInteger borrowed = borrowedThreads.get(workScheduler);
+            if (borrowed == null) {
+                borrowedThreads.put(workScheduler, new AtomicInteger(1));
+            } else {
+                borrowed.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop offering threads to the scheduler, once it is cancelled.
+     *
+     * @param workScheduler the scheduler
+     */
+    public void deregister(ThreadPoolWorkScheduler workScheduler) {
+        waitingSchedulers.remove(workScheduler);
+    }
+
+    /**
+     * Give a thread back and offer it to the waiting schedulers.
+     *
+     * @param workScheduler the scheduler that borrowed the thread
+     */
+    public void giveBack(ThreadPoolWorkScheduler workScheduler) {
+        synchronized (borrowedThreads) {
+            AtomicInteger borrowed = borrowedThreads.get(workScheduler);
+            if (borrowed == null) {
+                return;
+            }
+
+            if (borrowed.decrementAndGet() <= 0) {
+                borrowedThreads.remove(workScheduler);
+            }
+        }
+        availableThreads.incrementAndGet();
+
+        int tries = waitingSchedulers.size();
+        while (tries-- > 0 && availableThreads.get() > 0) {
+            ThreadPoolWorkScheduler waiting = waitingSchedulers.poll();
+            if (waiting == null) {
+                return;
+            }
+
+            waiting.threadAvailable();
+        }
+    }
+
+    /**
+     * Tell the schedulers over their share to retire their idle threads.
+     */
+    private void requestThreadsBack(ThreadPoolWorkScheduler waiting) {
+        for (ThreadPoolWorkScheduler lender : borrowedThreads.keySet()) {
+            if (lender != waiting && isOverShare(lender)) {
+                lender.threadsWanted();
+            }
+        }
+    }
+
+    /**
+     * Whether other schedulers are waiting while the scheduler holds more than
+     * an even share of the budget.
+     *
+     * @param workScheduler the scheduler
+     * @return true if the scheduler should give a thread back
+     */
+    public boolean isOverShare(ThreadPoolWorkScheduler workScheduler) {
+        if (waitingSchedulers.isEmpty()) {
+            return false;
+        }
+
+        int activeSchedulers = 0;
+        for (AtomicInteger borrowed : borrowedThreads.values()) {
+            if (borrowed.get() > 0) {
+                activeSchedulers++;
+            }
+        }
+        for (ThreadPoolWorkScheduler waiting : waitingSchedulers) {
+            if (waiting.isCancelled()) {
+                waitingSchedulers.remove(waiting);
+                continue;
+            }
+
+            if (getBorrowedThreads(waiting) == 0) {
+                activeSchedulers++;
+            }
+        }
+
+        int fairShare = Math.max(1, budget / Math.max(1, activeSchedulers));
+        return getBorrowedThreads(workScheduler) > fairShare;
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work.flow;
+
+/**
+ * The reactive streams interfaces, with the same contract as
+ * {@code java.util.concurrent.Flow} which is not available on the Java
+ * version the scheduler targets. Adapting them to
+ * {@code java.util.concurrent.Flow} is a one to one delegation.
+ *
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    public static interface Publisher<T> {
+
+        public void subscribe(Subscriber<? super T> subscriber);
+
+    }
+
+    public static interface Subscriber<T> {
+
+        public void onSubscribe(Subscription subscription);
+
+        public void onNext(T item);
+
+        public void onError(Throwable throwable);
+
+        public void onComplete();
+
+    }
+
+    public static interface Subscription {
+
+        public void request(long n);
+
+        public void cancel();
+
+    }
+
+    public static interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+    }
+
+}
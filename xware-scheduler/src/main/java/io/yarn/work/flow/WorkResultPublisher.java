@@ -0,0 +1,314 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work.flow;
+
+import io.yarn.work.Work;
+import io.yarn.work.WorkListener;
+import io.yarn.work.WorkScheduler;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publish the results of works run on a work scheduler to a single
+ * subscriber, as the subscriber requests them.
+ *
+ * At most maxPending works may be running or have a result not yet
+ * requested, {@link #submit(Work)} waits beyond that. A producer faster than
+ * the subscriber or the scheduler is therefore throttled instead of filling
+ * the work queue. Null results are not published. A work failing terminates
+ * the subscription with its exception. {@link #close()} completes the
+ * subscription once all submitted works are published.
+ *
+ * @param <T> the result type
+ */
+public class WorkResultPublisher<T> implements Flow.Publisher<T> {
+
+    private final WorkScheduler workScheduler;
+
+    private final int maxPending;
+
+    private final Semaphore pendingPermits;
+
+    /**
+     * The works added and not yet done, mapped to false once done until their
+     * result is queued.
+     */
+    private final ConcurrentMap<Work, Boolean> runningWorks = new ConcurrentHashMap<Work, Boolean>();
+
+    private final Queue<Object> results = new ConcurrentLinkedQueue<Object>();
+
+    private final AtomicLong requested = new AtomicLong();
+
+    private final AtomicInteger drainCount = new AtomicInteger();
+
+    private final WorkListener workListener = new ResultWorkListener();
+
+    private volatile Flow.Subscriber<? super T> subscriber;
+
+    private volatile boolean closed = false;
+
+    private volatile boolean cancelled = false;
+
+    private volatile boolean terminated = false;
+
+    private volatile Throwable error;
+
+    public WorkResultPublisher(WorkScheduler workScheduler, int maxPending) {
+        this.workScheduler = workScheduler;
+        this.maxPending = maxPending;
+        this.pendingPermits = new Semaphore(maxPending);
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+
+        synchronized (this) {
+            if (this.subscriber != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("Work result publisher allows one subscriber only!"));
+                return;
+            }
+
+            this.subscriber = subscriber;
+        }
+
+        subscriber.onSubscribe(new ResultSubscription());
+        drain();
+    }
+
+    /**
+     * Add the work to the scheduler, waiting while maxPending works are
+     * running or have a result not yet requested.
+     *
+     * @param work the work producing a result
+     * @return false if the publisher is closed or the work was not added
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean submit(Work work) throws InterruptedException {
+        pendingPermits.acquire();
+        return dispatch(work);
+    }
+
+    /**
+     * Add the work to the scheduler, waiting at most the timeout.
+     *
+     * @param work the work producing a result
+     * @param timeout the timeout in milliseconds
+     * @return false if the publisher is closed, the work was not added or the
+     * timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean offer(Work work, long timeout) throws InterruptedException {
+        if (!pendingPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+
+        return dispatch(work);
+    }
+
+    private boolean dispatch(Work work) {
+        //under the lock of close, so that a work is either running or refused
+        //once closed
+        synchronized (this) {
+            if (closed || cancelled || terminated) {
+                pendingPermits.release();
+                return false;
+            }
+
+            runningWorks.put(work, Boolean.TRUE);
+        }
+
+        work.addWorkListener(workListener);
+        if (!workScheduler.addWork(work)) {
+            work.removeWorkListener(workListener);
+            runningWorks.remove(work);
+            pendingPermits.release();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Complete the subscription once the works submitted are published.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        drain();
+    }
+
+    private void workDone(Work work, Throwable t) {
+        //claim the work, keeping it running until its result is queued so
+        //that a drain does not complete in between
+        if (!runningWorks.replace(work, Boolean.TRUE, Boolean.FALSE)) {
+            return;
+        }
+
+        work.removeWorkListener(workListener);
+        if (t == null && work.hasException()) {
+            t = work.getException();
+        }
+
+        if (t != null) {
+            if (error == null) {
+                error = t;
+            }
+            pendingPermits.release();
+        } else if (!work.isCancelled() && work.getResult() != null) {
+            results.offer(work.getResult());
+        } else {
+            pendingPermits.release();
+        }
+
+        runningWorks.remove(work);
+        drain();
+    }
+
+    /**
+     * Deliver the requested results, one thread at a time.
+     */
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        if (drainCount.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        for (;;) {
+            Flow.Subscriber<? super T> target = subscriber;
+            if (target != null && !terminated) {
+                long demand = requested.get();
+                long emitted = 0;
+                while (emitted != demand && !cancelled && error == null) {
+                    Object result = results.poll();
+                    if (result == null) {
+                        break;
+                    }
+
+                    pendingPermits.release();
+                    target.onNext((T) result);
+                    emitted++;
+                }
+
+                if (cancelled) {
+                    terminate();
+                } else if (error != null) {
+                    terminate();
+                    target.onError(error);
+                } else if (closed && runningWorks.isEmpty() && results.isEmpty()) {
+                    terminate();
+                    target.onComplete();
+                }
+
+                if (emitted != 0 && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+            }
+
+            missed = drainCount.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void terminate() {
+        terminated = true;
+        int released = 0;
+        while (results.poll() != null) {
+            released++;
+        }
+        pendingPermits.release(released);
+    }
+
+    private class ResultSubscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested " + n + " items, must be positive!");
+                drain();
+                return;
+            }
+
+            for (;;) {
+                long current = requested.get();
+                long next = current + n;
+                if (next < 0) {
+                    next = Long.MAX_VALUE;
+                }
+
+                if (requested.compareAndSet(current, next)) {
+                    break;
+                }
+            }
+
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+    }
+
+    private class ResultWorkListener implements WorkListener {
+
+        @Override
+        public void workStarted(Work work) {
+        }
+
+        @Override
+        public void workAborted(Work work, Throwable t) {
+        }
+
+        @Override
+        public void workCancelled(Work work, Throwable t) {
+            workDone(work, null);
+        }
+
+        @Override
+        public void workFinished(Work work, Throwable t) {
+            workDone(work, t);
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.yarn.work.flow;
+
+import io.yarn.work.Work;
+import io.yarn.work.WorkListener;
+import io.yarn.work.WorkScheduler;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Consume an upstream publisher as works run on a work scheduler.
+ *
+ * Each item received is turned into a work by the work factory. At most
+ * maxInFlight works are requested and not finished at any time, one more
+ * item is requested as each work finishes, so a fast publisher is held back
+ * by the scheduler instead of filling its work queue.
+ *
+ * @param <T> the item type
+ */
+public class WorkSubscriber<T> implements Flow.Subscriber<T> {
+
+    private final WorkScheduler workScheduler;
+
+    private final ItemWorkFactory<? super T> workFactory;
+
+    private final int maxInFlight;
+
+    private final ConcurrentMap<Work, Boolean> runningWorks = new ConcurrentHashMap<Work, Boolean>();
+
+    private final WorkListener workListener = new ItemWorkListener();
+
+    private volatile Flow.Subscription subscription;
+
+    private volatile boolean upstreamDone = false;
+
+    private volatile Throwable error;
+
+    private final Object finishLock = new Object();
+
+    public WorkSubscriber(WorkScheduler workScheduler, ItemWorkFactory<? super T> workFactory, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+        }
+
+        this.workScheduler = workScheduler;
+        this.workFactory = workFactory;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return runningWorks.size();
+    }
+
+    /**
+     * @return the error signaled by the publisher, or null
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+
+        this.subscription = subscription;
+        subscription.request(maxInFlight);
+    }
+
+    @Override
+    public void onNext(T item) {
+        Work work = workFactory.createWork(item);
+        runningWorks.put(work, Boolean.TRUE);
+        work.addWorkListener(workListener);
+        if (!workScheduler.addWork(work)) {
+            workDone(work);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        upstreamDone = true;
+        notifyIfFinished();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        notifyIfFinished();
+    }
+
+    /**
+     * Stop requesting items, the works already added still run.
+     */
+    public void cancel() {
+        upstreamDone = true;
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+        notifyIfFinished();
+    }
+
+    public boolean isFinished() {
+        return upstreamDone && runningWorks.isEmpty();
+    }
+
+    /**
+     * Wait until the publisher has completed and all its works finished.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void waitFinish() throws InterruptedException {
+        synchronized (finishLock) {
+            while (!isFinished()) {
+                finishLock.wait();
+            }
+        }
+    }
+
+    private void workDone(Work work) {
+        if (runningWorks.remove(work) == null) {
+            return;
+        }
+
+        work.removeWorkListener(workListener);
+        if (!upstreamDone) {
+            subscription.request(1);
+        }
+        notifyIfFinished();
+    }
+
+    private void notifyIfFinished() {
+        if (isFinished()) {
+            synchronized (finishLock) {
+                finishLock.notifyAll();
+            }
+        }
+    }
+
+    private class ItemWorkListener implements WorkListener {
+
+        @Override
+        public void workStarted(Work work) {
+        }
+
+        @Override
+        public void workAborted(Work work, Throwable t) {
+        }
+
+        @Override
+        public void workCancelled(Work work, Throwable t) {
+            workDone(work);
+        }
+
+        @Override
+        public void workFinished(Work work, Throwable t) {
+            workDone(work);
+        }
+    }
+
+}